@@ -0,0 +1,21 @@
+package de.gtrefs.coffeeshop.benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+final class Directories {
+
+	private Directories() {
+	}
+
+	static void delete(Path directory) throws IOException {
+		if(directory == null || !Files.exists(directory)) return;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package de.gtrefs.coffeeshop.benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.*;
+import org.openjdk.jmh.annotations.*;
+
+// The second barista. Cups are appended to the reconciliation outbox, which is emptied
+// after every iteration. Within an iteration the outbox fills up faster than it can be
+// written to disk, so most cups take the path of a full outbox.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FallBackBaristaBenchmark {
+
+	@Param({ "Espresso", "Latte Macchiato" })
+	private String flavor;
+
+	private Path directory;
+	private ReconciliationOutbox outbox;
+	private FallBackBarista barista;
+	private Order order;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("fallback-barista-benchmark");
+		outbox = ReconciliationOutbox.open(directory, 16 * 1024 * 1024, CardNumberCipher.withRandomKey(), 65536);
+		var flavors = new FlavorCatalog(List.of("melange", "black", "espresso", "ristretto", "cappuccino"));
+		barista = new FallBackBarista(outbox, new SnowflakeIds(1), flavors);
+		order = new Order(1L, flavor, "1234");
+	}
+
+	@Benchmark
+	public OrderStatus makeCoffee() {
+		return barista.makeCoffee(order);
+	}
+
+	@TearDown(Level.Iteration)
+	public void emptyOutbox() throws IOException {
+		List<ReconciliationOutbox.Entry> entries;
+		while (!(entries = outbox.next(4096)).isEmpty()) {
+			outbox.acknowledge(entries);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		outbox.close();
+		Directories.delete(directory);
+	}
+}
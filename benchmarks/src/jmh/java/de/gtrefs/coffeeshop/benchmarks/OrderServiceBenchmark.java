@@ -0,0 +1,88 @@
+package de.gtrefs.coffeeshop.benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import de.gtrefs.coffeeshop.order.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.simple.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.convert.*;
+import org.springframework.boot.env.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.*;
+import org.springframework.core.io.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+// An order from acceptance to receipt, with the order service configured as in its
+// application.yml. The barista and the payment service answer right away without a
+// network, so what is measured is the pipeline itself: the filters of the web clients,
+// hedging, the order repository and the journal.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderServiceBenchmark {
+
+	private static final int BATCH_SIZE = 64;
+	private static final String CUP = "{\"id\": 382949602021949440, \"flavor\": \"Black\"}";
+	private static final String RECEIPT = "{\"id\": 382949602026143744, \"balance\": 7.65}";
+	private static final String FLAVORS = "[\"melange\", \"black\", \"espresso\", \"ristretto\", \"cappuccino\"]";
+
+	@Param({ "true", "false" })
+	private String hedging;
+
+	private Path directory;
+	private AnnotationConfigApplicationContext context;
+	private OrderService orderService;
+
+	@Setup
+	public void startOrderService() throws IOException {
+		directory = Files.createTempDirectory("order-benchmark");
+		context = new AnnotationConfigApplicationContext();
+		context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+		var properties = context.getEnvironment().getPropertySources();
+		new YamlPropertySourceLoader().load("application.yml", new ClassPathResource("application.yml")).forEach(properties::addLast);
+		properties.addFirst(new MapPropertySource("benchmark", Map.of(
+				"coffeeshop.order.node-id", "1",
+				"coffeeshop.order.journal.directory", directory.resolve("journal").toString(),
+				"coffeeshop.order.reconciliation.directory", directory.resolve("outbox").toString(),
+				"coffeeshop.barista.hedging.enabled", hedging)));
+		context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+		context.registerBean(WebClient.Builder.class, () -> WebClient.builder().exchangeFunction(OrderServiceBenchmark::answer));
+		context.register(OrderConfiguration.class, OrderService.class);
+		context.refresh();
+		orderService = context.getBean(OrderService.class);
+	}
+
+	private static Mono<ClientResponse> answer(ClientRequest request) {
+		var path = request.url().getPath();
+		var body = path.endsWith("/charge") ? RECEIPT : path.endsWith("/flavors") ? FLAVORS : CUP;
+		return Mono.just(ClientResponse.create(HttpStatus.OK)
+									   .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+									   .body(body)
+									   .build());
+	}
+
+	@Benchmark
+	public OrderStatus orderCoffee() {
+		return orderService.orderCoffee(new Order(null, "Black", "4111-000000001234")).block();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<OrderStatus> orderCoffees() {
+		var orders = IntStream.range(0, BATCH_SIZE).mapToObj(i -> new Order(null, "Black", "4111-000000001234"));
+		return orderService.orderCoffees(Flux.fromStream(orders)).collectList().block();
+	}
+
+	@TearDown
+	public void stopOrderService() throws IOException {
+		context.close();
+		Directories.delete(directory);
+	}
+}
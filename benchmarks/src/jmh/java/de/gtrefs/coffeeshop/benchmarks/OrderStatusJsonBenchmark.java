@@ -0,0 +1,85 @@
+package de.gtrefs.coffeeshop.benchmarks;
+
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.fasterxml.jackson.databind.*;
+import de.gtrefs.coffeeshop.order.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.*;
+
+// What the order service writes as response and reads from requests and from the
+// barista and the payment service, with an object mapper configured like Spring Boot's.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrderStatusJsonBenchmark {
+
+	private ObjectMapper mapper;
+	private ObjectReader orderReader;
+	private ObjectReader cupReader;
+	private ObjectReader receiptReader;
+	private CoffeeOrdered coffeeOrdered;
+	private CoffeePayed coffeePayed;
+	private OrderNotPossible orderNotPossible;
+	private byte[] order;
+	private byte[] cup;
+	private byte[] receipt;
+
+	@Setup
+	public void setUp() throws IOException {
+		mapper = Jackson2ObjectMapperBuilder.json().build();
+		orderReader = mapper.readerFor(Order.class);
+		cupReader = mapper.readerFor(OrderedCup.class);
+		receiptReader = mapper.readerFor(Receipt.class);
+
+		var customerOrder = new Order(382949602017755136L, "Cappuccino", "4111-000000001234");
+		var orderedCup = new OrderedCup();
+		orderedCup.setId(382949602021949440L);
+		orderedCup.setFlavor("Cappuccino");
+		var paid = new Receipt();
+		paid.setId(382949602026143744L);
+		paid.setBalance(new BigDecimal("6.75"));
+		coffeeOrdered = new CoffeeOrdered(customerOrder, orderedCup);
+		coffeePayed = new CoffeePayed(paid, orderedCup, customerOrder);
+		orderNotPossible = new OrderNotPossible(customerOrder, new ErrorResponse("BAD_REQUEST",
+				List.of("We don't offer this flavor.")), OrderNotPossible.Reason.BARISTA_NOT_AVAILABLE);
+
+		order = mapper.writeValueAsBytes(customerOrder);
+		cup = mapper.writeValueAsBytes(orderedCup);
+		receipt = mapper.writeValueAsBytes(paid);
+	}
+
+	@Benchmark
+	public byte[] writeCoffeeOrdered() throws IOException {
+		return mapper.writeValueAsBytes(coffeeOrdered);
+	}
+
+	@Benchmark
+	public byte[] writeCoffeePayed() throws IOException {
+		return mapper.writeValueAsBytes(coffeePayed);
+	}
+
+	@Benchmark
+	public byte[] writeOrderNotPossible() throws IOException {
+		return mapper.writeValueAsBytes(orderNotPossible);
+	}
+
+	@Benchmark
+	public Order readOrder() throws IOException {
+		return orderReader.readValue(order);
+	}
+
+	@Benchmark
+	public OrderedCup readCup() throws IOException {
+		return cupReader.readValue(cup);
+	}
+
+	@Benchmark
+	public Receipt readReceipt() throws IOException {
+		return receiptReader.readValue(receipt);
+	}
+}
@@ -0,0 +1,83 @@
+package de.gtrefs.coffeeshop.benchmarks;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.concurrent.*;
+
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.module.paramnames.*;
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.payment.*;
+import io.micrometer.core.instrument.simple.*;
+import org.openjdk.jmh.annotations.*;
+
+// Charges from several threads at once, either all to the same card or spread over many.
+// Charges are recorded in the ledger journal, but do not wait until they are on disk.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class PaymentServiceBenchmark {
+
+	@Param({ "1", "1024" })
+	private int cards;
+
+	private Path directory;
+	private LedgerJournal journal;
+	private PaymentService paymentService;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("payment-benchmark");
+		var ledger = new Ledger(64, 0, Long.MAX_VALUE / 2);
+		journal = LedgerJournal.open(directory, ledger, Duration.ofMinutes(5), 4096);
+		var processedCharges = new ProcessedCharges(100_000, Duration.ofMinutes(10));
+		paymentService = new PaymentService(ledger, journal, processedCharges, new SnowflakeIds(1), new SimpleMeterRegistry());
+	}
+
+	@State(Scope.Thread)
+	public static class Charges {
+		private static final ObjectReader reader = new ObjectMapper().registerModule(new ParameterNamesModule())
+																	 .readerFor(PaymentCharge.class);
+		private final ThreadLocalRandom random = ThreadLocalRandom.current();
+		private PaymentCharge[] charges;
+		private long next;
+
+		@Setup
+		public void setUp(PaymentServiceBenchmark benchmark) throws IOException {
+			charges = new PaymentCharge[benchmark.cards];
+			for (int card = 0; card < charges.length; card++) {
+				var json = String.format("{\"price\": 2.35, \"creditCardNumber\": \"4111-%012d\", \"idempotencyKey\": \"repeated-%d\"}", card, card);
+				charges[card] = reader.readValue(json);
+			}
+		}
+
+		PaymentCharge repeated() {
+			return charges[random.nextInt(charges.length)];
+		}
+
+		PaymentCharge next() {
+			var charge = repeated();
+			charge.setIdempotencyKey(Thread.currentThread().getId() + "-" + next++);
+			return charge;
+		}
+	}
+
+	@Benchmark
+	public Object expense(Charges charges) {
+		return paymentService.expense(charges.next());
+	}
+
+	// Repeats are answered from the processed charges and do not reach the ledger.
+	@Benchmark
+	public Object repeatedExpense(Charges charges) {
+		return paymentService.expense(charges.repeated());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		journal.close();
+		Directories.delete(directory);
+	}
+}
@@ -0,0 +1,54 @@
+package de.gtrefs.coffeeshop.benchmarks;
+
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.*;
+import de.gtrefs.coffeeshop.order.Prices.*;
+import org.openjdk.jmh.annotations.*;
+
+// Looking up the price of an order, alone and while the prices are replaced all the time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PricesBenchmark {
+
+	private static final String PRICES = "{\"melange\": \"5.00\", \"black\": \"2.35\", \"espresso\": \"1.50\", \"ristretto\": \"1.00\", \"cappuccino\": \"3.25\"}";
+
+	@Param({ "Melange", "ESPRESSO", "Latte Macchiato" })
+	private String flavor;
+
+	private Prices prices;
+	private Map<String, BigDecimal> table;
+	private Order order;
+
+	@Setup
+	public void setUp() throws IOException {
+		var flavors = new FlavorCatalog(List.of("melange", "black", "espresso", "ristretto", "cappuccino"));
+		table = Prices.parse(PRICES);
+		prices = Prices.of(table, flavors);
+		order = new Order(1L, flavor, "1234");
+	}
+
+	@Benchmark
+	public Optional<Price> forOrder() {
+		return prices.forOrder(order);
+	}
+
+	@Benchmark
+	@Group("updated")
+	@GroupThreads(3)
+	public Optional<Price> forOrderWhileUpdated() {
+		return prices.forOrder(order);
+	}
+
+	@Benchmark
+	@Group("updated")
+	@GroupThreads(1)
+	public long update() {
+		return prices.update(table);
+	}
+}
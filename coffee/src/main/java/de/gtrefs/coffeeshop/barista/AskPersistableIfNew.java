@@ -0,0 +1,17 @@
+package de.gtrefs.coffeeshop.barista;
+
+import org.hibernate.*;
+import org.springframework.data.domain.*;
+
+// Hibernate takes an entity with an id for one that was saved before. Cups with
+// given ids are new anyway, they know it themselves.
+public class AskPersistableIfNew extends EmptyInterceptor {
+
+	@Override
+	public Boolean isTransient(Object entity) {
+		if(entity instanceof Persistable){
+			return ((Persistable<?>) entity).isNew();
+		}
+		return null;
+	}
+}
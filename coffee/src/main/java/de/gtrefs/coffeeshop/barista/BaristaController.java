@@ -3,47 +3,101 @@ package de.gtrefs.coffeeshop.barista;
 import javax.validation.*;
 import javax.validation.constraints.*;
 import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
 
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.*;
+import org.springframework.data.domain.*;
 import org.springframework.http.*;
 import org.springframework.validation.annotation.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.*;
 
 @RestController
 @RequestMapping(value = "/api", produces = { MediaType.APPLICATION_JSON_VALUE })
 @Validated
 public class BaristaController {
 	private final CoffeeRepository coffees;
+	private final ServedCoffeesStream servedCoffees;
+	private final ServedCoffeesCache cachedCoffees;
+	private final Timer singleCups;
+	private final Timer batchedCups;
+	private final Counter brewedSingleCups;
+	private final Counter brewedBatchedCups;
 
 	@Autowired
-	public BaristaController(CoffeeRepository repository) {
+	public BaristaController(CoffeeRepository repository, ServedCoffeesStream servedCoffees, ServedCoffeesCache cachedCoffees,
+							 MeterRegistry meterRegistry) {
 		this.coffees = repository;
+		this.servedCoffees = servedCoffees;
+		this.cachedCoffees = cachedCoffees;
+		this.singleCups = Timer.builder("coffee.brewing").tag("path", "single").register(meterRegistry);
+		this.batchedCups = Timer.builder("coffee.brewing").tag("path", "batch").register(meterRegistry);
+		this.brewedSingleCups = Counter.builder("coffee.brewed").tag("path", "single").register(meterRegistry);
+		this.brewedBatchedCups = Counter.builder("coffee.brewed").tag("path", "batch").register(meterRegistry);
 	}
 
 	@GetMapping(value = "/coffees")
-	public List<Cup> getAllServedCoffees() {
-		return coffees.findAll();
+	public ResponseEntity<StreamingResponseBody> getAllServedCoffees() {
+		return ResponseEntity.ok()
+							 .contentType(MediaType.APPLICATION_JSON)
+							 .body(servedCoffees::writeTo);
+	}
+
+	// Pages are found by the last id of the previous page, so
+	// every page costs the same no matter how far we are.
+	@GetMapping(value = "/coffees", params = "limit")
+	public List<Cup> getServedCoffees(@RequestParam(defaultValue = "0") Long after,
+									  @RequestParam @Min(value = 1, message = "Please ask for at least one coffee.")
+									  @Max(value = 1000, message = "Please ask for at most 1000 coffees at once.") int limit) {
+		return coffees.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, limit));
 	}
 
 	@PostMapping("/coffees")
-	Cup orderCoffee(@RequestBody Cup wantedCoffee) {
-		return coffees.save(wantedCoffee);
+	Cup orderCoffee(@RequestBody @Valid Cup wantedCoffee) {
+		var cup = singleCups.record(() -> stored(List.of(coffees.save(wantedCoffee)))).get(0);
+		brewedSingleCups.increment();
+		cachedCoffees.invalidate(wantedCoffee.getId());
+		return cup;
+	}
+
+	// All cups are saved in one transaction. Ids are either given or come from a pooled
+	// sequence, and cups are not looked up before they are inserted, see Cup. So Hibernate
+	// sends the inserts to the database in JDBC batches.
+	@PostMapping("/coffees/batch")
+	List<Cup> orderCoffees(@RequestBody List<@Valid Cup> wantedCoffees) {
+		var cups = batchedCups.record(() -> stored(coffees.saveAll(wantedCoffees)));
+		brewedBatchedCups.increment(cups.size());
+		wantedCoffees.forEach(cup -> cachedCoffees.invalidate(cup.getId()));
+		return cups;
 	}
 	
+	// A cup which was there already is not inserted again, see Cup. So cups are read
+	// again after they are saved, in one query, and answered as they are stored.
+	private List<Cup> stored(List<Cup> saved) {
+		var ids = saved.stream().map(Cup::getId).collect(Collectors.toList());
+		var stored = coffees.findStoredByIdIn(ids).stream().collect(Collectors.toMap(Cup::getId, Function.identity()));
+		return saved.stream().map(cup -> stored.getOrDefault(cup.getId(), cup)).collect(Collectors.toList());
+	}
+
 	@GetMapping("/coffees/{id}")
 	Cup getServedCoffee(@PathVariable @Min(value = 1, message = "Please tell us which coffee you are referring to.") Long id) {
-	    return coffees.findById(id)
+	    return cachedCoffees.findById(id)
 					  .orElseThrow(() -> new CoffeeNotMadeHere("Sorry. We never made coffee with "+id));
 	}
 
 	@PutMapping("/coffees/{id}")
 	Cup updateCoffeeOrder(@RequestBody Cup updatedCoffeeCup, @PathVariable Long id) {
-		return coffees.findById(id).map(coffeeCup ->
+		var cup = coffees.findById(id).map(coffeeCup ->
 				coffees.save(updateExistingCoffeeOrder(updatedCoffeeCup, coffeeCup))
 		).orElseGet(() -> {
 			updatedCoffeeCup.setId(id);
 			return coffees.save(updatedCoffeeCup);
 		});
+		cachedCoffees.invalidate(id);
+		return cup;
 	}
 
 	private Cup updateExistingCoffeeOrder(@RequestBody Cup updated, Cup existing) {
@@ -55,6 +109,7 @@ public class BaristaController {
 	ResponseEntity<?> deleteCoffeeOrder(@PathVariable Long id) {
         return coffees.findById(id).map(coffeeCup -> {
             coffees.delete(coffeeCup);
+            cachedCoffees.invalidate(id);
             return ResponseEntity.noContent().build();
         }).orElseGet(() -> ResponseEntity.notFound().build());
 	}
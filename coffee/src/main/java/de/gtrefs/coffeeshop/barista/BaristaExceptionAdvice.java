@@ -5,6 +5,8 @@ import java.util.*;
 import java.util.stream.*;
 
 import org.springframework.http.*;
+import org.springframework.validation.*;
+import org.springframework.web.bind.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.*;
 import org.springframework.web.servlet.mvc.method.annotation.*;
@@ -33,4 +35,16 @@ public class BaristaExceptionAdvice extends ResponseEntityExceptionHandler
 		ErrorResponse error = new ErrorResponse(BAD_REQUEST, details);
 		return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
 	}
+
+	@Override
+	protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex, HttpHeaders headers, HttpStatus status, WebRequest request) {
+		List<String> details = ex.getBindingResult()
+									.getAllErrors()
+									.stream()
+									.map(ObjectError::getDefaultMessage)
+									.collect(Collectors.toList());
+
+		ErrorResponse error = new ErrorResponse(BAD_REQUEST, details);
+		return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+	}
 }
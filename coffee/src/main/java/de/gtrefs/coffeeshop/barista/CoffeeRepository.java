@@ -1,9 +1,18 @@
 package de.gtrefs.coffeeshop.barista;
 
+import java.util.*;
+
+import org.springframework.data.domain.*;
 import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.*;
 import org.springframework.stereotype.*;
 
 @Repository
 public interface CoffeeRepository extends JpaRepository<Cup, Long> {
 
+	List<Cup> findByIdGreaterThanOrderByIdAsc(Long id, Pageable page);
+
+	// The cups as they are in the database, not as the persistence context knows them
+	@Query("select new de.gtrefs.coffeeshop.barista.Cup(c.id, c.flavor) from Cup c where c.id in :ids")
+	List<Cup> findStoredByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -2,30 +2,47 @@ package de.gtrefs.coffeeshop.barista;
 
 import javax.persistence.Entity;
 import javax.persistence.Table;
+import javax.persistence.Transient;
+import org.hibernate.annotations.Parameter;
 import javax.persistence.*;
 import javax.validation.constraints.*;
 import java.io.*;
 
+import com.fasterxml.jackson.annotation.*;
 import org.hibernate.annotations.*;
+import org.springframework.data.domain.*;
 
+// Cups ordered by the order service come with their id. Such a cup is new to us, unless
+// it was ordered before, e.g. by a hedge or a reconciliation sent again. So cups are
+// inserted without looking them up first, which keeps the inserts in JDBC batches, and
+// a cup which is already there stays as it is. Spring Data and, with AskPersistableIfNew,
+// Hibernate ask the cup whether it is new. The barista answers with the cups as they are
+// stored, so that a cup ordered again with another flavor is not taken for brewed.
 @Entity
 @Table(name = "tbl_cup")
-public class Cup implements Serializable {
+@SQLInsert(sql = "insert into tbl_cup (flavor, id) values (?, ?) on conflict do nothing", check = ResultCheckStyle.NONE)
+public class Cup implements Serializable, Persistable<Long> {
     private static final long serialVersionUID = 1L;
 
     @Id
-    @GenericGenerator(name="GivenOrGenerated", strategy = "de.gtrefs.coffeeshop.barista.UseGivenIdOrElseGenerateIt")
+    @GenericGenerator(name="GivenOrGenerated", strategy = "de.gtrefs.coffeeshop.barista.UseGivenIdOrElseGenerateIt",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "tbl_cup_seq"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled")
+            })
     @GeneratedValue(generator = "GivenOrGenerated")
     @Column(unique = true, nullable = false)
     private Long id;
 
-	@Pattern(regexp = "melange|black|espresso|ristretto|cappuccino",
-			flags = Pattern.Flag.CASE_INSENSITIVE,
-			message = "We don't offer this flavor. Please pick one of " +
+	@KnownFlavor(message = "We don't offer this flavor. Please pick one of " +
 					"Black Coffee, Melange, Espresso, Ristretto or Cappuccino.")
 	@NotNull(message = "Please order something.")
 	private String flavor;
 
+	@Transient
+	private boolean isNew = true;
+
 	public Cup() {
 	}
 
@@ -39,6 +56,11 @@ public class Cup implements Serializable {
 		this.flavor = flavor;
 	}
 
+	public Cup(Long id, String flavor){
+		this.id = id;
+		this.flavor = flavor;
+	}
+
 	public Long getId() {
 		return id;
 	}
@@ -47,6 +69,18 @@ public class Cup implements Serializable {
 		this.id = id;
 	}
 
+	@Override
+	@JsonIgnore
+	public boolean isNew() {
+		return isNew;
+	}
+
+	@PostLoad
+	@PostPersist
+	void notNew() {
+		isNew = false;
+	}
+
 	public String getFlavor() {
 		return flavor;
 	}
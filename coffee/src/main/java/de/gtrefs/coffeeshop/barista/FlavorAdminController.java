@@ -0,0 +1,37 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.slf4j.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+
+// Changes what we offer without a restart. The list replaces the offered flavors,
+// flavors which were offered before keep their ids.
+@RestController
+@RequestMapping(value = "/api/admin", produces = { MediaType.APPLICATION_JSON_VALUE })
+public class FlavorAdminController {
+
+	private final static Logger logger = LoggerFactory.getLogger(FlavorAdminController.class);
+
+	private final FlavorCatalog flavors;
+
+	@Autowired
+	public FlavorAdminController(FlavorCatalog flavors) {
+		this.flavors = flavors;
+	}
+
+	@GetMapping("/flavors")
+	List<String> flavors() {
+		return flavors.flavors();
+	}
+
+	@PutMapping("/flavors")
+	List<String> offer(@RequestBody List<String> offered) {
+		flavors.offer(offered);
+		logger.info("Now offering {}.", flavors.flavors());
+		return flavors.flavors();
+	}
+}
@@ -0,0 +1,25 @@
+package de.gtrefs.coffeeshop.barista;
+
+import javax.validation.ValidatorFactory;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.autoconfigure.orm.jpa.*;
+import org.springframework.context.annotation.*;
+
+@Configuration
+public class FlavorConfiguration {
+
+	@Bean
+	public FlavorCatalog flavors(@Value("${coffeeshop.coffee.flavors}") List<String> flavors) {
+		return new FlavorCatalog(flavors);
+	}
+
+	// Hibernate validates cups again before they are stored. It has to use the validators
+	// Spring creates, otherwise KnownFlavorValidator does not get the catalog.
+	@Bean
+	public HibernatePropertiesCustomizer springValidatorsForHibernate(ValidatorFactory validatorFactory) {
+		return properties -> properties.put("javax.persistence.validation.factory", validatorFactory);
+	}
+}
@@ -0,0 +1,21 @@
+package de.gtrefs.coffeeshop.barista;
+
+import javax.validation.*;
+import java.lang.annotation.*;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+// The flavor is offered by the flavor catalog. Null is left to @NotNull.
+@Target({ FIELD, PARAMETER })
+@Retention(RUNTIME)
+@Documented
+@Constraint(validatedBy = KnownFlavorValidator.class)
+public @interface KnownFlavor {
+
+	String message() default "We don't offer this flavor.";
+
+	Class<?>[] groups() default {};
+
+	Class<? extends Payload>[] payload() default {};
+}
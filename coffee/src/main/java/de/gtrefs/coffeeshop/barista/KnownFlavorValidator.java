@@ -0,0 +1,21 @@
+package de.gtrefs.coffeeshop.barista;
+
+import javax.validation.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.springframework.beans.factory.annotation.*;
+
+public class KnownFlavorValidator implements ConstraintValidator<KnownFlavor, CharSequence> {
+
+	private final FlavorCatalog flavors;
+
+	@Autowired
+	public KnownFlavorValidator(FlavorCatalog flavors) {
+		this.flavors = flavors;
+	}
+
+	@Override
+	public boolean isValid(CharSequence flavor, ConstraintValidatorContext context) {
+		return flavor == null || flavors.offers(flavor);
+	}
+}
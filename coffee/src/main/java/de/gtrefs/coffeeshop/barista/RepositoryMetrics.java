@@ -0,0 +1,76 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.*;
+import org.springframework.beans.factory.*;
+import org.springframework.beans.factory.config.*;
+import org.springframework.data.repository.core.support.*;
+import org.springframework.stereotype.*;
+
+// Times every call of a repository method, queries and saves alike, by repository,
+// method and outcome. Spring Boot only does this by itself from 2.5 on. The timing
+// comes first, so that getting a connection and the transaction count as well.
+// The timers of a method are registered on its first call and kept, so that later
+// calls neither build tags nor look them up in the registry.
+@Component
+public class RepositoryMetrics implements BeanPostProcessor {
+
+	private final ObjectProvider<MeterRegistry> meterRegistry;
+
+	// The registry is looked up late, post processors are created before everything else.
+	public RepositoryMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+		if(bean instanceof RepositoryFactoryBeanSupport){
+			((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+					(proxy, repository) -> proxy.addAdvice(0, timed(repository.getRepositoryInterface().getSimpleName()))));
+		}
+		return bean;
+	}
+
+	private MethodInterceptor timed(String repository) {
+		var timers = new ConcurrentHashMap<Method, MethodTimers>();
+		return invocation -> {
+			var started = System.nanoTime();
+			var failed = false;
+			try {
+				return invocation.proceed();
+			} catch (Throwable e) {
+				failed = true;
+				throw e;
+			} finally {
+				var method = timers.get(invocation.getMethod());
+				if(method == null){
+					method = timers.computeIfAbsent(invocation.getMethod(), m -> new MethodTimers(repository, m.getName()));
+				}
+				(failed ? method.failure : method.success).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+			}
+		};
+	}
+
+	private class MethodTimers {
+		private final Timer success;
+		private final Timer failure;
+
+		private MethodTimers(String repository, String method) {
+			this.success = timer(repository, method, "success");
+			this.failure = timer(repository, method, "failure");
+		}
+
+		private Timer timer(String repository, String method, String outcome) {
+			return Timer.builder("coffee.repository")
+						.description("Calls of repository methods")
+						.tag("repository", repository)
+						.tag("method", method)
+						.tag("outcome", outcome)
+						.register(meterRegistry.getObject());
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package de.gtrefs.coffeeshop.barista;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.common.Span.*;
+import org.aopalliance.intercept.*;
+import org.springframework.beans.factory.config.*;
+import org.springframework.data.repository.core.support.*;
+import org.springframework.stereotype.*;
+
+// Calls of repository methods within a request are spans of the request's trace,
+// so that a slow request shows whether it waited for the database.
+@Component
+public class RepositorySpans implements BeanPostProcessor {
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+		if(bean instanceof RepositoryFactoryBeanSupport){
+			((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+					(proxy, repository) -> proxy.addAdvice(0, traced(repository.getRepositoryInterface().getSimpleName()))));
+		}
+		return bean;
+	}
+
+	private MethodInterceptor traced(String repository) {
+		return invocation -> {
+			var parent = TracingFilter.currentSpan();
+			if(parent.isEmpty()) return invocation.proceed();
+			var span = parent.get().child(repository + "." + invocation.getMethod().getName(), Kind.CLIENT);
+			try {
+				return invocation.proceed();
+			} catch (Throwable e) {
+				span.tag("error", e.getClass().getSimpleName());
+				throw e;
+			} finally {
+				span.end();
+			}
+		};
+	}
+}
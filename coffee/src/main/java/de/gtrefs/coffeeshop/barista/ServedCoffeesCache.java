@@ -0,0 +1,78 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.time.*;
+import java.util.*;
+
+import com.github.benmanes.caffeine.cache.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+import io.micrometer.core.instrument.binder.cache.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.stereotype.*;
+
+// A cup does not change after it has been brewed, so lookups are answered from
+// memory. Cups we never made are remembered as well, but only briefly, so that
+// a storm of lookups for unknown cups does not reach the database.
+@Component
+public class ServedCoffeesCache implements MeterBinder {
+
+	private final LoadingCache<Long, Optional<Cup>> cups;
+
+	@Autowired
+	public ServedCoffeesCache(CoffeeRepository coffees,
+							  @Value("${coffeeshop.coffee.cache.maximum-size}") long maximumSize,
+							  @Value("${coffeeshop.coffee.cache.time-to-live}") Duration timeToLive,
+							  @Value("${coffeeshop.coffee.cache.not-found-time-to-live}") Duration notFoundTimeToLive) {
+		this(coffees, maximumSize, timeToLive, notFoundTimeToLive, Ticker.systemTicker());
+	}
+
+	// Tests bring their own clock
+	ServedCoffeesCache(CoffeeRepository coffees, long maximumSize, Duration timeToLive, Duration notFoundTimeToLive, Ticker ticker) {
+		this.cups = Caffeine.newBuilder()
+							.maximumSize(maximumSize)
+							.expireAfter(new ForgetUnknownCupsSooner(timeToLive, notFoundTimeToLive))
+							.ticker(ticker)
+							.recordStats()
+							.build(coffees::findById);
+	}
+
+	public Optional<Cup> findById(Long id) {
+		return cups.get(id);
+	}
+
+	public void invalidate(Long id) {
+		if(id != null){
+			cups.invalidate(id);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, cups, "cups");
+	}
+
+	private static class ForgetUnknownCupsSooner implements Expiry<Long, Optional<Cup>> {
+		private final long timeToLive;
+		private final long notFoundTimeToLive;
+
+		private ForgetUnknownCupsSooner(Duration timeToLive, Duration notFoundTimeToLive) {
+			this.timeToLive = timeToLive.toNanos();
+			this.notFoundTimeToLive = notFoundTimeToLive.toNanos();
+		}
+
+		@Override
+		public long expireAfterCreate(Long id, Optional<Cup> cup, long currentTime) {
+			return cup.isPresent() ? timeToLive : notFoundTimeToLive;
+		}
+
+		@Override
+		public long expireAfterUpdate(Long id, Optional<Cup> cup, long currentTime, long currentDuration) {
+			return cup.isPresent() ? timeToLive : notFoundTimeToLive;
+		}
+
+		@Override
+		public long expireAfterRead(Long id, Optional<Cup> cup, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.io.*;
+import java.sql.*;
+import java.time.*;
+
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.dao.*;
+import org.springframework.jdbc.core.*;
+import org.springframework.stereotype.*;
+import org.springframework.transaction.*;
+import org.springframework.transaction.support.*;
+
+// Writes all served cups as a JSON array while reading them from a forward-only
+// cursor. Only fetchSize rows are held in memory at any time. Postgres only uses
+// a cursor inside of a transaction, which is why the query runs in a read-only one.
+//
+// The transaction holds a pooled connection until the last cup is written, as slowly
+// as the client reads them. After the timeout, the response is cut off and the
+// connection goes back to the pool.
+@Component
+public class ServedCoffeesStream {
+
+	private final JdbcTemplate jdbc;
+	private final TransactionTemplate transaction;
+	private final JsonFactory json;
+	private final int fetchSize;
+	private final Duration timeout;
+
+	@Autowired
+	public ServedCoffeesStream(JdbcTemplate jdbc, PlatformTransactionManager transactionManager, ObjectMapper mapper,
+							   @Value("${coffeeshop.coffee.stream.fetch-size}") int fetchSize,
+							   @Value("${coffeeshop.coffee.stream.timeout}") Duration timeout) {
+		this.jdbc = jdbc;
+		this.transaction = new TransactionTemplate(transactionManager);
+		this.transaction.setReadOnly(true);
+		this.transaction.setTimeout((int) Math.max(1, timeout.toSeconds()));
+		this.json = mapper.getFactory();
+		this.fetchSize = fetchSize;
+		this.timeout = timeout;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		var deadline = System.nanoTime() + timeout.toNanos();
+		try (var cups = json.createGenerator(out)) {
+			cups.writeStartArray();
+			transaction.executeWithoutResult(status -> jdbc.query(this::selectAllCups, (RowCallbackHandler) row -> write(cups, row, deadline)));
+			cups.writeEndArray();
+		}
+	}
+
+	private PreparedStatement selectAllCups(Connection connection) throws SQLException {
+		var statement = connection.prepareStatement("select id, flavor from tbl_cup order by id",
+													ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(fetchSize);
+		return statement;
+	}
+
+	private void write(JsonGenerator cups, ResultSet row, long deadline) throws SQLException {
+		if(System.nanoTime() > deadline){
+			throw new QueryTimeoutException("Served cups were not written within " + timeout + ".");
+		}
+		try {
+			cups.writeStartObject();
+			cups.writeNumberField("id", row.getLong("id"));
+			cups.writeStringField("flavor", row.getString("flavor"));
+			cups.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.io.*;
+import java.nio.file.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.*;
+import org.springframework.util.unit.*;
+
+@Configuration
+public class TracingConfiguration {
+
+	@Bean(destroyMethod = "close")
+	public SpanFile spanFile(@Value("${coffeeshop.coffee.tracing.file}") String file,
+							 @Value("${coffeeshop.coffee.tracing.max-file-size}") DataSize maxFileSize,
+							 @Value("${coffeeshop.coffee.tracing.queue-capacity}") int queueCapacity) throws IOException {
+		return SpanFile.open(Paths.get(file), maxFileSize.toBytes(), queueCapacity);
+	}
+
+	@Bean
+	public Tracer tracer(@Value("${coffeeshop.coffee.tracing.traces-per-second}") int tracesPerSecond, SpanFile spanFile) {
+		return new Tracer("coffee", tracesPerSecond, spanFile);
+	}
+
+	@Bean
+	public TracingFilter tracingFilter(Tracer tracer) {
+		return new TracingFilter(tracer);
+	}
+}
@@ -3,9 +3,12 @@ package de.gtrefs.coffeeshop.barista;
 import java.io.*;
 
 import org.hibernate.engine.spi.*;
-import org.hibernate.id.*;
+import org.hibernate.id.enhanced.*;
 
-public class UseGivenIdOrElseGenerateIt extends IdentityGenerator {
+// Ids come from a pooled sequence, so Hibernate can batch inserts
+// without a round-trip per cup. Ids given by the client are kept,
+// see Cup for why they are not looked up before the insert.
+public class UseGivenIdOrElseGenerateIt extends SequenceStyleGenerator {
 
     @Override
     public Serializable generate(SharedSessionContractImplementor session, Object object) {
@@ -0,0 +1,91 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.util.*;
+
+import io.restassured.filter.log.*;
+import io.restassured.http.*;
+import io.restassured.specification.*;
+import org.junit.jupiter.api.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.boot.test.mock.mockito.*;
+import org.springframework.boot.web.server.*;
+
+import static de.gtrefs.coffeeshop.barista.ServedCoffeesCacheShould.*;
+import static io.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.*;
+
+// Cups we never made are remembered for an hour here, so only invalidation lets a new cup through
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+				properties = "coffeeshop.coffee.cache.not-found-time-to-live=1h")
+public class ChangedCoffeesAreNotServedFromTheCache {
+
+	@LocalServerPort
+	private int port;
+
+	@MockBean
+	private CoffeeRepository coffees;
+
+	private RequestSpecification coffeeShopApi;
+
+	@BeforeEach
+	public void setupCoffeeShopApi(){
+		coffeeShopApi = given()
+				.filter(new ErrorLoggingFilter())
+				.baseUri("http://localhost:"+port+"/api")
+				.contentType(ContentType.JSON);
+		when(coffees.save(any(Cup.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		when(coffees.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+	}
+
+	@Test
+	public void a_cup_which_was_just_brewed(){
+		servedCoffeeIs(1L, null);
+
+		when(coffees.findById(1L)).thenReturn(Optional.of(cup(1L, "black")));
+		coffeeShopApi.body(cup(1L, "black")).post("/coffees").then().statusCode(200);
+
+		servedCoffeeIs(1L, "black");
+	}
+
+	@Test
+	public void a_cup_which_was_just_brewed_in_a_batch(){
+		servedCoffeeIs(2L, null);
+
+		when(coffees.findById(2L)).thenReturn(Optional.of(cup(2L, "melange")));
+		coffeeShopApi.body(List.of(cup(2L, "melange"))).post("/coffees/batch").then().statusCode(200);
+
+		servedCoffeeIs(2L, "melange");
+	}
+
+	@Test
+	public void a_cup_which_was_changed(){
+		when(coffees.findById(3L)).thenReturn(Optional.of(cup(3L, "black")));
+		servedCoffeeIs(3L, "black");
+
+		coffeeShopApi.body(cup(3L, "espresso")).put("/coffees/3").then().statusCode(200);
+		when(coffees.findById(3L)).thenReturn(Optional.of(cup(3L, "espresso")));
+
+		servedCoffeeIs(3L, "espresso");
+	}
+
+	@Test
+	public void a_cup_which_was_deleted(){
+		when(coffees.findById(4L)).thenReturn(Optional.of(cup(4L, "black")));
+		servedCoffeeIs(4L, "black");
+
+		coffeeShopApi.delete("/coffees/4").then().statusCode(204);
+		when(coffees.findById(4L)).thenReturn(Optional.empty());
+
+		servedCoffeeIs(4L, null);
+	}
+
+	private void servedCoffeeIs(Long id, String flavor) {
+		var served = coffeeShopApi.get("/coffees/" + id).then();
+		if(flavor == null){
+			served.statusCode(404);
+		} else {
+			served.statusCode(200).body("flavor", equalTo(flavor));
+		}
+	}
+}
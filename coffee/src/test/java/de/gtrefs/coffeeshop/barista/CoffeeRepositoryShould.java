@@ -0,0 +1,161 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import javax.persistence.*;
+import javax.sql.*;
+
+import org.hibernate.*;
+import org.hibernate.stat.*;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.beans.factory.config.*;
+import org.springframework.boot.test.autoconfigure.jdbc.*;
+import org.springframework.boot.test.autoconfigure.orm.jpa.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.context.annotation.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DataJpaTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:coffee;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"spring.jpa.properties.javax.persistence.validation.mode=none"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+public class CoffeeRepositoryShould {
+
+	private static final AtomicInteger batches = new AtomicInteger();
+	private static final AtomicInteger updates = new AtomicInteger();
+
+	@Autowired
+	private CoffeeRepository coffees;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private Statistics statistics;
+
+	@BeforeEach
+	public void clearStatistics() {
+		statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+		batches.set(0);
+		updates.set(0);
+	}
+
+	@Test
+	public void insert_cups_with_given_ids_without_looking_them_up() {
+		coffees.saveAll(List.of(cup(1L, "black"), cup(2L, "melange")));
+		entityManager.flush();
+
+		assertThat(statistics.getEntityInsertCount()).isEqualTo(2);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void insert_cups_in_jdbc_batches() {
+		var cups = LongStream.rangeClosed(1, 100).mapToObj(id -> cup(id, "black")).collect(Collectors.toList());
+
+		coffees.saveAll(cups);
+		entityManager.flush();
+
+		// 100 cups are two batches of 64 at most
+		assertThat(statistics.getEntityInsertCount()).isEqualTo(100);
+		assertThat(batches).hasValue(2);
+		assertThat(updates).hasValue(0);
+	}
+
+	@Test
+	public void insert_cups_without_ids_in_jdbc_batches() {
+		var cups = IntStream.range(0, 100).mapToObj(i -> Cup.of("black")).collect(Collectors.toList());
+
+		coffees.saveAll(cups);
+		entityManager.flush();
+
+		assertThat(statistics.getEntityInsertCount()).isEqualTo(100);
+		assertThat(batches).hasValue(2);
+		assertThat(updates).hasValue(0);
+	}
+
+	@Test
+	public void keep_a_cup_which_is_ordered_again() {
+		coffees.save(cup(1L, "black"));
+		entityManager.flush();
+		entityManager.clear();
+
+		coffees.save(cup(1L, "melange"));
+		entityManager.flush();
+		entityManager.clear();
+
+		assertThat(coffees.findAll()).singleElement()
+									 .extracting(Cup::getFlavor)
+									 .isEqualTo("black");
+	}
+
+	@Test
+	public void tell_the_flavor_of_a_cup_which_is_ordered_again() {
+		coffees.save(cup(1L, "black"));
+		entityManager.flush();
+		entityManager.clear();
+
+		var again = coffees.save(cup(1L, "melange"));
+
+		assertThat(again.getFlavor()).isEqualTo("melange");
+		assertThat(coffees.findStoredByIdIn(List.of(1L))).singleElement()
+														 .extracting(Cup::getFlavor)
+														 .isEqualTo("black");
+	}
+
+	private static Cup cup(Long id, String flavor) {
+		var cup = Cup.of(flavor);
+		cup.setId(id);
+		return cup;
+	}
+
+	// Counts the statements sent to the database one by one and those sent in batches
+	@TestConfiguration
+	static class CountedStatements {
+
+		@Bean
+		static BeanPostProcessor countStatements() {
+			return new BeanPostProcessor() {
+				@Override
+				public Object postProcessAfterInitialization(Object bean, String beanName) {
+					if(bean instanceof DataSource){
+						return counted(DataSource.class, bean);
+					}
+					return bean;
+				}
+			};
+		}
+
+		private static Object counted(Class<?> type, Object target) {
+			return Proxy.newProxyInstance(CountedStatements.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+				switch(method.getName()){
+					case "executeBatch": batches.incrementAndGet(); break;
+					case "executeUpdate": updates.incrementAndGet(); break;
+				}
+				try {
+					var result = method.invoke(target, args);
+					if(result instanceof PreparedStatement){
+						return counted(PreparedStatement.class, result);
+					}
+					if(result instanceof Connection){
+						return counted(Connection.class, result);
+					}
+					return result;
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			});
+		}
+	}
+}
@@ -9,6 +9,7 @@ import org.springframework.boot.test.mock.mockito.*;
 import org.springframework.boot.web.server.*;
 
 import static io.restassured.RestAssured.*;
+import static org.mockito.Mockito.*;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 public class CoffeeShopOnlyHasFlavorsFromTheOpening {
@@ -27,6 +28,7 @@ public class CoffeeShopOnlyHasFlavorsFromTheOpening {
 				.filter(new ErrorLoggingFilter())
 				.baseUri("http://localhost:"+port+"/api")
 				.contentType(ContentType.JSON);
+		when(coffees.save(any(Cup.class))).thenAnswer(invocation -> invocation.getArgument(0));
 	}
 
 	@Test
@@ -37,4 +39,13 @@ public class CoffeeShopOnlyHasFlavorsFromTheOpening {
 					 .then()
 					 .statusCode(200);
 	}
+
+	@Test
+	public void no_latte_macchiato(){
+		var latteMacchiato = Cup.of("Latte Macchiato");
+		coffeeShopApi.body(latteMacchiato)
+					 .post("/coffees")
+					 .then()
+					 .statusCode(400);
+	}
 }
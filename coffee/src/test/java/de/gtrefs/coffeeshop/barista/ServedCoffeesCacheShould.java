@@ -0,0 +1,66 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.time.*;
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ServedCoffeesCacheShould {
+
+	private long now = 0;
+
+	private final CoffeeRepository coffees = mock(CoffeeRepository.class);
+	private final ServedCoffeesCache cache = new ServedCoffeesCache(coffees, 100, Duration.ofMinutes(10), Duration.ofSeconds(1),
+																	() -> now);
+
+	@Test
+	public void look_up_a_served_cup_only_once() {
+		when(coffees.findById(1L)).thenReturn(Optional.of(cup(1L, "black")));
+
+		cache.findById(1L);
+		passes(Duration.ofMinutes(9));
+
+		assertThat(cache.findById(1L)).hasValueSatisfying(cup -> assertThat(cup.getFlavor()).isEqualTo("black"));
+		verify(coffees, times(1)).findById(1L);
+	}
+
+	@Test
+	public void remember_briefly_that_a_cup_was_never_made() {
+		when(coffees.findById(1L)).thenReturn(Optional.empty());
+
+		assertThat(cache.findById(1L)).isEmpty();
+		assertThat(cache.findById(1L)).isEmpty();
+		verify(coffees, times(1)).findById(1L);
+
+		when(coffees.findById(1L)).thenReturn(Optional.of(cup(1L, "black")));
+		passes(Duration.ofSeconds(2));
+
+		assertThat(cache.findById(1L)).isPresent();
+		verify(coffees, times(2)).findById(1L);
+	}
+
+	@Test
+	public void look_up_a_cup_again_once_it_changed() {
+		when(coffees.findById(1L)).thenReturn(Optional.empty());
+		cache.findById(1L);
+
+		when(coffees.findById(1L)).thenReturn(Optional.of(cup(1L, "black")));
+		cache.invalidate(1L);
+
+		assertThat(cache.findById(1L)).isPresent();
+	}
+
+	private void passes(Duration duration) {
+		now += duration.toNanos();
+	}
+
+	static Cup cup(Long id, String flavor) {
+		var cup = Cup.of(flavor);
+		cup.setId(id);
+		return cup;
+	}
+}
@@ -0,0 +1,116 @@
+package de.gtrefs.coffeeshop.barista;
+
+import java.io.*;
+import java.time.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import com.fasterxml.jackson.databind.*;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.test.autoconfigure.jdbc.*;
+import org.springframework.boot.test.autoconfigure.orm.jpa.*;
+import org.springframework.dao.*;
+import org.springframework.jdbc.core.*;
+import org.springframework.transaction.*;
+import org.springframework.transaction.annotation.*;
+import org.springframework.transaction.support.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Cups are saved for real, so that the stream runs in a transaction of its own
+@DataJpaTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:coffee;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"spring.jpa.properties.javax.persistence.validation.mode=none"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ServedCoffeesStreamShould {
+
+	private final ObjectMapper json = new ObjectMapper();
+
+	@Autowired
+	private CoffeeRepository coffees;
+
+	@Autowired
+	private JdbcTemplate jdbc;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@BeforeEach
+	public void serveCups() {
+		coffees.saveAll(LongStream.rangeClosed(1, 1000).mapToObj(id -> cup(id, id % 2 == 0 ? "black" : "melange"))
+								  .collect(Collectors.toList()));
+	}
+
+	@AfterEach
+	public void clearCups() {
+		coffees.deleteAllInBatch();
+	}
+
+	@Test
+	public void write_all_served_cups_in_the_order_they_were_served() throws Exception {
+		var out = new ByteArrayOutputStream();
+
+		stream(Duration.ofSeconds(10)).writeTo(out);
+
+		var cups = json.readTree(out.toByteArray());
+		assertThat(cups).hasSize(1000);
+		assertThat(cups.get(0).get("id").asLong()).isEqualTo(1);
+		assertThat(cups.get(0).get("flavor").asText()).isEqualTo("melange");
+		assertThat(cups.get(999).get("id").asLong()).isEqualTo(1000);
+	}
+
+	@Test
+	public void stop_writing_to_a_slow_client_after_the_timeout() {
+		var slowClient = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+		};
+
+		assertThatThrownBy(() -> stream(Duration.ofMillis(50)).writeTo(slowClient))
+				.isInstanceOf(QueryTimeoutException.class);
+	}
+
+	@Test
+	public void read_cups_in_a_read_only_transaction() throws Exception {
+		var readOnly = new AtomicBoolean();
+		var jdbc = new JdbcTemplate(this.jdbc.getDataSource()) {
+			@Override
+			public void query(PreparedStatementCreator query, RowCallbackHandler rows) {
+				readOnly.set(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+				super.query(query, rows);
+			}
+		};
+
+		new ServedCoffeesStream(jdbc, transactionManager, json, 10, Duration.ofSeconds(10)).writeTo(new ByteArrayOutputStream());
+
+		assertThat(readOnly).isTrue();
+	}
+
+	private ServedCoffeesStream stream(Duration timeout) {
+		return new ServedCoffeesStream(jdbc, transactionManager, json, 10, timeout);
+	}
+
+	private static Cup cup(Long id, String flavor) {
+		var cup = Cup.of(flavor);
+		cup.setId(id);
+		return cup;
+	}
+}
@@ -0,0 +1,47 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+// Journals and outboxes belong to one instance. Two instances on one host which are
+// configured with the same directory would write over each other's segments, so the
+// second one refuses to start. The lock is held by the operating system and goes away
+// with the process, even if it crashed.
+public class DirectoryLock implements Closeable {
+
+	private static final String LOCK_FILE = ".lock";
+
+	private final FileChannel channel;
+	private final FileLock lock;
+
+	private DirectoryLock(FileChannel channel, FileLock lock) {
+		this.channel = channel;
+		this.lock = lock;
+	}
+
+	public static DirectoryLock lock(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		var channel = FileChannel.open(directory.resolve(LOCK_FILE), CREATE, WRITE);
+		FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if(lock == null){
+			channel.close();
+			throw new IOException("Directory " + directory + " is used by another instance. " +
+								  "Configure a directory of its own for each instance on this host.");
+		}
+		return new DirectoryLock(channel, lock);
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.release();
+		channel.close();
+	}
+}
@@ -0,0 +1,147 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// The flavors we offer, numbered so that orders and cups can refer to their flavor by a
+// small integer. Flavors are looked up ignoring case, without lowercasing into a new string.
+//
+// The catalog can be replaced while orders come in. A flavor keeps its id for as long
+// as the service runs: new flavors get new ids and withdrawn flavors keep theirs, so
+// that orders which were recorded before still find their name. Ids are handed out in
+// the order of the configured list, new flavors belong at its end. Ids which were handed
+// out before a restart are kept if the catalog is created with the flavors known then.
+public class FlavorCatalog {
+
+	public static final int UNKNOWN = 0;
+
+	private final AtomicReference<Snapshot> snapshot;
+
+	public FlavorCatalog(List<String> flavors) {
+		this(List.of(), flavors);
+	}
+
+	// Known flavors get the ids 1 to n in the order of the list, offered or not.
+	public FlavorCatalog(List<String> known, List<String> offered) {
+		this.snapshot = new AtomicReference<>(Snapshot.EMPTY.offering(known).offering(offered));
+	}
+
+	public int idOf(CharSequence flavor) {
+		return snapshot.get().idOf(flavor);
+	}
+
+	// Withdrawn flavors as well, for what was ordered while they were offered
+	public int knownIdOf(CharSequence flavor) {
+		return flavor == null ? UNKNOWN : snapshot.get().slotOf(flavor);
+	}
+
+	public boolean offers(CharSequence flavor) {
+		return idOf(flavor) != UNKNOWN;
+	}
+
+	public String nameOf(int id) {
+		return snapshot.get().nameOf(id);
+	}
+
+	public int maxId() {
+		return snapshot.get().names.length - 1;
+	}
+
+	public List<String> flavors() {
+		return snapshot.get().offered();
+	}
+
+	// All flavors which got an id, withdrawn ones included, in the order of their ids
+	public List<String> known() {
+		var names = snapshot.get().names;
+		return List.of(Arrays.copyOfRange(names, 1, names.length));
+	}
+
+	public void offer(List<String> flavors) {
+		snapshot.updateAndGet(current -> current.offering(flavors));
+	}
+
+	private static class Snapshot {
+		private static final Snapshot EMPTY = new Snapshot(new String[]{"unknown"}, new boolean[]{false});
+
+		// Indexed by id
+		private final String[] names;
+		private final boolean[] offered;
+		// Open addressing table of ids by case insensitive hash of the name
+		private final int[] ids;
+
+		private Snapshot(String[] names, boolean[] offered) {
+			this.names = names;
+			this.offered = offered;
+			this.ids = new int[Integer.highestOneBit(Math.max(2, names.length) * 4)];
+			for (int id = 1; id < names.length; id++) {
+				int slot = hash(names[id]) & (ids.length - 1);
+				while (ids[slot] != UNKNOWN) {
+					slot = (slot + 1) & (ids.length - 1);
+				}
+				ids[slot] = id;
+			}
+		}
+
+		private Snapshot offering(List<String> flavors) {
+			var names = new ArrayList<>(Arrays.asList(this.names));
+			var offered = new boolean[names.size() + flavors.size()];
+			for (String flavor : flavors) {
+				var name = flavor.trim();
+				int id = slotOf(name);
+				for (int added = this.names.length; id == UNKNOWN && added < names.size(); added++) {
+					if(equalsIgnoreCase(names.get(added), name)) id = added;
+				}
+				if(id == UNKNOWN){
+					id = names.size();
+					names.add(name);
+				}
+				offered[id] = true;
+			}
+			return new Snapshot(names.toArray(new String[0]), Arrays.copyOf(offered, names.size()));
+		}
+
+		// Withdrawn flavors are found as well, so that they keep their id when they come back.
+		private int slotOf(CharSequence flavor) {
+			int mask = ids.length - 1;
+			for (int slot = hash(flavor) & mask; ids[slot] != UNKNOWN; slot = (slot + 1) & mask) {
+				if(equalsIgnoreCase(names[ids[slot]], flavor)) return ids[slot];
+			}
+			return UNKNOWN;
+		}
+
+		private int idOf(CharSequence flavor) {
+			if(flavor == null) return UNKNOWN;
+			int id = slotOf(flavor);
+			return offered[id] ? id : UNKNOWN;
+		}
+
+		private String nameOf(int id) {
+			return id > 0 && id < names.length ? names[id] : names[UNKNOWN];
+		}
+
+		private List<String> offered() {
+			var flavors = new ArrayList<String>();
+			for (int id = 1; id < names.length; id++) {
+				if(offered[id]) flavors.add(names[id]);
+			}
+			return flavors;
+		}
+
+		private static int hash(CharSequence flavor) {
+			int hash = 0;
+			for (int i = 0; i < flavor.length(); i++) {
+				hash = 31 * hash + Character.toLowerCase(flavor.charAt(i));
+			}
+			return hash ^ (hash >>> 16);
+		}
+
+		private static boolean equalsIgnoreCase(String name, CharSequence flavor) {
+			if(name.length() != flavor.length()) return false;
+			for (int i = 0; i < name.length(); i++) {
+				if(Character.toLowerCase(name.charAt(i)) != Character.toLowerCase(flavor.charAt(i))) return false;
+			}
+			return true;
+		}
+	}
+}
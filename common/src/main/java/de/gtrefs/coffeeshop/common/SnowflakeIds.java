@@ -0,0 +1,96 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.net.*;
+import java.util.concurrent.atomic.*;
+
+import org.slf4j.*;
+
+// 64 bit ids which are unique across nodes and grow with time:
+//
+//  1 bit  unused, ids are positive
+// 41 bits milliseconds since 2020-01-01, good until 2089
+// 10 bits node id
+// 12 bits sequence within the millisecond
+//
+// The last timestamp and sequence are packed into a single long and advanced by CAS,
+// so handing out an id neither locks nor allocates. If the sequence of a millisecond
+// runs out, or the clock goes back, ids are taken from the following millisecond.
+// The ids of a node therefore always grow, whatever the clock does.
+//
+// Ids are only unique across nodes if every node has a node id of its own. One which is
+// derived from the host name is the same for two hosts about once in 1024.
+public class SnowflakeIds {
+
+	private static final Logger logger = LoggerFactory.getLogger(SnowflakeIds.class);
+
+	public static final long EPOCH = 1577836800000L;
+
+	private static final int NODE_BITS = 10;
+	private static final int SEQUENCE_BITS = 12;
+	private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private final long node;
+	// Milliseconds since the epoch and sequence of the last id, laid out as in the id but without the node.
+	private final AtomicLong last = new AtomicLong();
+	// Ids handed out while the clock was behind a time it had shown before
+	private final AtomicLong clockRollbacks = new AtomicLong();
+	private volatile long latestClock;
+
+	public SnowflakeIds(long node) {
+		if(node < 0 || node > MAX_NODE){
+			throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE + ", but was " + node);
+		}
+		this.node = node << SEQUENCE_BITS;
+	}
+
+	// A negative node id means that none was configured, then it is derived from the host name.
+	public static SnowflakeIds forNode(long node) throws UnknownHostException {
+		if(node >= 0) return new SnowflakeIds(node);
+		var hostName = InetAddress.getLocalHost().getHostName();
+		var derived = (hostName.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - NODE_BITS);
+		logger.warn("No node id configured, using node id {} derived from host name {}. Ids are only unique if no other " +
+					"instance has the same node id, configure a node id for each instance when running more than one.",
+					derived, hostName);
+		return new SnowflakeIds(derived);
+	}
+
+	public long next() {
+		while (true) {
+			long previous = last.get();
+			long now = clock();
+			long millis = previous >>> SEQUENCE_BITS;
+			long next;
+			if(now > millis){
+				next = now << SEQUENCE_BITS;
+			} else {
+				next = previous + 1;
+			}
+			if(last.compareAndSet(previous, next)){
+				return ((next & ~SEQUENCE_MASK) << NODE_BITS) | node | (next & SEQUENCE_MASK);
+			}
+		}
+	}
+
+	// The latest clock reading is written at most once per millisecond, so that all threads can share it.
+	private long clock() {
+		long now = System.currentTimeMillis() - EPOCH;
+		long latest = latestClock;
+		if(now > latest){
+			latestClock = now;
+		} else if(now < latest){
+			clockRollbacks.incrementAndGet();
+		}
+		return now;
+	}
+
+	// Makes sure that ids handed out before a restart are not handed out again, even if the clock went back meanwhile.
+	public void advancePast(long id) {
+		long packed = ((id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | (id & SEQUENCE_MASK);
+		last.accumulateAndGet(packed, Math::max);
+	}
+
+	public long clockRollbacks() {
+		return clockRollbacks.get();
+	}
+}
@@ -0,0 +1,133 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// A part of a trace, e.g. handling a request, a stage of an order or a call of another
+// service. Spans are passed on like W3C trace context: traceparent: 00-<trace id>-<span id>-<flags>
+//
+// A span which is not sampled only carries its ids along, so that the services behind us
+// do not sample a trace of which we kept nothing. It does not read the clock, keeps no tags
+// and is not exported.
+public class Span {
+
+	public static final String TRACEPARENT = "traceparent";
+
+	public enum Kind { SERVER, CLIENT, INTERNAL }
+
+	private final Tracer tracer;
+	final long traceIdHigh;
+	final long traceIdLow;
+	final long id;
+	// 0 for the root of a trace
+	final long parentId;
+	final boolean sampled;
+	String name;
+	final Kind kind;
+	final long timestampMicros;
+	private final long startedNanos;
+	private long durationMicros;
+	private Map<String, String> tags;
+
+	Span(Tracer tracer, long traceIdHigh, long traceIdLow, long parentId, boolean sampled, String name, Kind kind) {
+		this.tracer = tracer;
+		this.traceIdHigh = traceIdHigh;
+		this.traceIdLow = traceIdLow;
+		this.id = Tracer.nextId();
+		this.parentId = parentId;
+		this.sampled = sampled;
+		this.name = name;
+		this.kind = kind;
+		this.timestampMicros = sampled ? TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) : 0;
+		this.startedNanos = sampled ? System.nanoTime() : 0;
+	}
+
+	public Span child(String name, Kind kind) {
+		return new Span(tracer, traceIdHigh, traceIdLow, id, sampled, name, kind);
+	}
+
+	// For names which are only known once the work is done
+	public Span name(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public Span tag(String key, Object value) {
+		if(sampled){
+			if(tags == null) tags = new LinkedHashMap<>();
+			tags.put(key, String.valueOf(value));
+		}
+		return this;
+	}
+
+	public void end() {
+		if(!sampled) return;
+		durationMicros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedNanos));
+		tracer.finished(this);
+	}
+
+	public boolean sampled() {
+		return sampled;
+	}
+
+	public String traceId() {
+		return hex(traceIdHigh) + hex(traceIdLow);
+	}
+
+	public String traceparent() {
+		return "00-" + traceId() + "-" + hex(id) + (sampled ? "-01" : "-00");
+	}
+
+	// Zipkin's JSON format, which most tracing backends read
+	String toJson(String serviceName) {
+		var json = new StringBuilder(256).append("{\"traceId\":\"").append(traceId())
+										 .append("\",\"id\":\"").append(hex(id)).append('"');
+		if(parentId != 0) json.append(",\"parentId\":\"").append(hex(parentId)).append('"');
+		json.append(",\"name\":");
+		string(json, name);
+		if(kind != Kind.INTERNAL) json.append(",\"kind\":\"").append(kind).append('"');
+		json.append(",\"timestamp\":").append(timestampMicros)
+			.append(",\"duration\":").append(durationMicros)
+			.append(",\"localEndpoint\":{\"serviceName\":");
+		string(json, serviceName);
+		json.append('}');
+		if(tags != null){
+			json.append(",\"tags\":{");
+			var first = true;
+			for (Map.Entry<String, String> tag : tags.entrySet()) {
+				if(!first) json.append(',');
+				string(json, tag.getKey());
+				json.append(':');
+				string(json, tag.getValue());
+				first = false;
+			}
+			json.append('}');
+		}
+		return json.append('}').toString();
+	}
+
+	private static void string(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\'){
+				json.append('\\').append(c);
+			} else if(c < 0x20){
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	static String hex(long value) {
+		var hex = Long.toHexString(value);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + traceparent();
+	}
+}
@@ -0,0 +1,128 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+import org.slf4j.*;
+
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+// Finished spans, one JSON object per line, for a collector to pick up or to be looked at
+// directly. Requests only put their spans into a queue. A single writer thread turns them
+// into JSON and writes them. Spans are dropped rather than making a request wait.
+//
+// Once the file is larger than the maximum size, it is moved aside and a new one started.
+public class SpanFile implements MeterBinder, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(SpanFile.class);
+
+	private final Path file;
+	private final long maxSize;
+	private final BlockingQueue<Finished> pending;
+	private final Thread writer;
+	private final AtomicLong exported = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean running = true;
+	private Writer out;
+	private long size;
+
+	private SpanFile(Path file, long maxSize, int queueCapacity) {
+		this.file = file;
+		this.maxSize = maxSize;
+		this.pending = new ArrayBlockingQueue<>(queueCapacity);
+		this.writer = new Thread(this::writeBatches, "span-file");
+		this.writer.setDaemon(true);
+	}
+
+	public static SpanFile open(Path file, long maxSize, int queueCapacity) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		var spans = new SpanFile(file, maxSize, queueCapacity);
+		spans.startFile();
+		spans.writer.start();
+		return spans;
+	}
+
+	void export(Span span, String serviceName) {
+		if(!pending.offer(new Finished(span, serviceName))){
+			dropped.incrementAndGet();
+		}
+	}
+
+	private void startFile() throws IOException {
+		size = Files.exists(file) ? Files.size(file) : 0;
+		out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, CREATE, APPEND);
+	}
+
+	private void writeBatches() {
+		var batch = new ArrayList<Finished>();
+		while (running || !pending.isEmpty()) {
+			try {
+				var first = pending.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) continue;
+				batch.add(first);
+				pending.drainTo(batch, 511);
+				for (Finished finished : batch) {
+					var json = finished.span.toJson(finished.serviceName);
+					out.write(json);
+					out.write('\n');
+					size += json.length() + 1;
+				}
+				out.flush();
+				exported.addAndGet(batch.size());
+				if(size > maxSize) roll();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Could not write {} spans to {}.", batch.size(), file, e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void roll() throws IOException {
+		out.close();
+		Files.move(file, file.resolveSibling(file.getFileName() + ".1"), REPLACE_EXISTING);
+		startFile();
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+			out.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.warn("Could not close span file {}.", file, e);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("tracing.spans.exported", exported, AtomicLong::get).register(registry);
+		FunctionCounter.builder("tracing.spans.dropped", dropped, AtomicLong::get)
+					   .description("Spans which did not fit into the queue of the span file")
+					   .register(registry);
+	}
+
+	private static class Finished {
+		private final Span span;
+		private final String serviceName;
+
+		private Finished(Span span, String serviceName) {
+			this.span = span;
+			this.serviceName = serviceName;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import de.gtrefs.coffeeshop.common.Span.*;
+
+// Starts traces or continues the ones of our callers. Only a few traces per second are
+// sampled, however many requests come in, so that tracing can stay on under full load.
+// All other traces cost a few random numbers and a header.
+public class Tracer {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final String serviceName;
+	private final int tracesPerSecond;
+	private final SpanFile spans;
+	private final AtomicLong second = new AtomicLong();
+	private final AtomicInteger sampledThisSecond = new AtomicInteger();
+
+	public Tracer(String serviceName, int tracesPerSecond, SpanFile spans) {
+		this.serviceName = serviceName;
+		this.tracesPerSecond = tracesPerSecond;
+		this.spans = spans;
+	}
+
+	// Continues the trace of the traceparent header, if there is a valid one.
+	public Span serverSpan(String name, String traceparent) {
+		if(traceparent != null && traceparent.length() == 55 && traceparent.startsWith("00-")){
+			try {
+				var traceIdHigh = Long.parseUnsignedLong(traceparent.substring(3, 19), 16);
+				var traceIdLow = Long.parseUnsignedLong(traceparent.substring(19, 35), 16);
+				var parentId = Long.parseUnsignedLong(traceparent.substring(36, 52), 16);
+				var sampled = (Integer.parseInt(traceparent.substring(53, 55), 16) & 1) == 1;
+				if((traceIdHigh != 0 || traceIdLow != 0) && parentId != 0){
+					return new Span(this, traceIdHigh, traceIdLow, parentId, sampled, name, Kind.SERVER);
+				}
+			} catch (NumberFormatException e) {
+				// Start a trace of our own
+			}
+		}
+		return new Span(this, nextId(), nextId(), 0, sample(), name, Kind.SERVER);
+	}
+
+	private boolean sample() {
+		if(tracesPerSecond <= 0) return false;
+		var now = System.nanoTime() / NANOS_PER_SECOND;
+		var current = second.get();
+		if(current != now && second.compareAndSet(current, now)){
+			sampledThisSecond.set(0);
+		}
+		return sampledThisSecond.incrementAndGet() <= tracesPerSecond;
+	}
+
+	void finished(Span span) {
+		spans.export(span, serviceName);
+	}
+
+	static long nextId() {
+		long id;
+		do {
+			id = ThreadLocalRandom.current().nextLong();
+		} while (id == 0);
+		return id;
+	}
+}
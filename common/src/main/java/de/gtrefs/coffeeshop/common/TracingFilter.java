@@ -0,0 +1,78 @@
+package de.gtrefs.coffeeshop.common;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.util.*;
+
+import org.springframework.web.filter.*;
+import org.springframework.web.servlet.*;
+
+// Every request is handled within a server span, which continues the trace of the caller
+// if there is one. The span is the current span of the thread while the request is handled.
+// Requests which are answered asynchronously end their span once the answer is complete.
+// Spans are named after the route, e.g. GET /api/order/{id}, so that there are only a few
+// names to group them by. Requests no handler was found for are named after their method.
+// Each service registers it as a bean with its own tracer.
+public class TracingFilter extends OncePerRequestFilter {
+
+	private static final ThreadLocal<Span> current = new ThreadLocal<>();
+
+	private final Tracer tracer;
+
+	public TracingFilter(Tracer tracer) {
+		this.tracer = tracer;
+	}
+
+	public static Optional<Span> currentSpan() {
+		return Optional.ofNullable(current.get());
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		var span = tracer.serverSpan(request.getMethod(), request.getHeader(Span.TRACEPARENT));
+		current.set(span);
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			current.remove();
+			var route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+			if(route != null) span.name(request.getMethod() + " " + route);
+			if(request.isAsyncStarted()){
+				request.getAsyncContext().addListener(new EndSpan(span, response));
+			} else {
+				span.tag("http.status_code", response.getStatus()).end();
+			}
+		}
+	}
+
+	private static class EndSpan implements AsyncListener {
+		private final Span span;
+		private final HttpServletResponse response;
+
+		private EndSpan(Span span, HttpServletResponse response) {
+			this.span = span;
+			this.response = response;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			span.tag("http.status_code", response.getStatus()).end();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			span.tag("error", "timeout");
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			span.tag("error", event.getThrowable() == null ? "error" : event.getThrowable().getClass().getSimpleName());
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DirectoryLockShould {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void refuse_a_directory_which_is_locked_already() throws Exception {
+		var lock = DirectoryLock.lock(directory);
+		try {
+			assertThatThrownBy(() -> DirectoryLock.lock(directory))
+					.isInstanceOf(IOException.class)
+					.hasMessageContaining("used by another instance");
+		} finally {
+			lock.close();
+		}
+	}
+
+	@Test
+	public void hand_the_directory_to_the_next_once_released() throws Exception {
+		DirectoryLock.lock(directory).close();
+
+		DirectoryLock.lock(directory).close();
+	}
+}
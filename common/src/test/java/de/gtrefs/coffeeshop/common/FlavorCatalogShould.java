@@ -0,0 +1,46 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FlavorCatalogShould {
+
+	@Test
+	public void find_flavors_regardless_of_case() {
+		var flavors = new FlavorCatalog(List.of("melange", "black", "espresso"));
+
+		assertThat(flavors.idOf("Black")).isEqualTo(2);
+		assertThat(flavors.idOf("ESPRESSO")).isEqualTo(3);
+		assertThat(flavors.offers("Latte")).isFalse();
+		assertThat(flavors.idOf(null)).isEqualTo(FlavorCatalog.UNKNOWN);
+	}
+
+	@Test
+	public void keep_ids_when_flavors_are_offered_again() {
+		var flavors = new FlavorCatalog(List.of("melange", "black", "espresso"));
+
+		flavors.offer(List.of("espresso", "Cappuccino", "melange"));
+
+		assertThat(flavors.idOf("melange")).isEqualTo(1);
+		assertThat(flavors.idOf("espresso")).isEqualTo(3);
+		assertThat(flavors.idOf("cappuccino")).isEqualTo(4);
+		assertThat(flavors.offers("black")).isFalse();
+		assertThat(flavors.nameOf(2)).isEqualTo("black");
+		assertThat(flavors.flavors()).containsExactly("melange", "espresso", "Cappuccino");
+	}
+
+	@Test
+	public void still_know_withdrawn_flavors() {
+		var flavors = new FlavorCatalog(List.of("melange", "black", "espresso"));
+
+		flavors.offer(List.of("melange", "espresso"));
+
+		assertThat(flavors.idOf("Black")).isEqualTo(FlavorCatalog.UNKNOWN);
+		assertThat(flavors.knownIdOf("Black")).isEqualTo(2);
+		assertThat(flavors.knownIdOf("Latte")).isEqualTo(FlavorCatalog.UNKNOWN);
+		assertThat(flavors.knownIdOf(null)).isEqualTo(FlavorCatalog.UNKNOWN);
+	}
+}
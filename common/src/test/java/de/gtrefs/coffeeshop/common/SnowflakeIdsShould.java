@@ -0,0 +1,65 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SnowflakeIdsShould {
+
+	@Test
+	public void hand_out_growing_ids() {
+		var ids = new SnowflakeIds(7);
+		long previous = ids.next();
+		for (int i = 0; i < 100_000; i++) {
+			long next = ids.next();
+			assertThat(next).isGreaterThan(previous);
+			previous = next;
+		}
+	}
+
+	@Test
+	public void hand_out_unique_ids_to_concurrent_callers() throws Exception {
+		var ids = new SnowflakeIds(7);
+		var executor = Executors.newFixedThreadPool(4);
+		var batches = new ArrayList<Future<long[]>>();
+		for (int thread = 0; thread < 4; thread++) {
+			batches.add(executor.submit(() -> {
+				var batch = new long[50_000];
+				for (int i = 0; i < batch.length; i++) {
+					batch[i] = ids.next();
+				}
+				return batch;
+			}));
+		}
+		var unique = new HashSet<Long>();
+		for (Future<long[]> batch : batches) {
+			for (long id : batch.get()) {
+				unique.add(id);
+			}
+		}
+		executor.shutdown();
+
+		assertThat(unique).hasSize(200_000);
+	}
+
+	@Test
+	public void keep_node_ids_apart() {
+		assertThat(new SnowflakeIds(1).next()).isNotEqualTo(new SnowflakeIds(2).next());
+		assertThat((new SnowflakeIds(1023).next() >>> 12) & 1023).isEqualTo(1023L);
+	}
+
+	@Test
+	public void continue_after_ids_handed_out_before_a_restart() {
+		var future = new SnowflakeIds(7);
+		future.advancePast((System.currentTimeMillis() - SnowflakeIds.EPOCH + 60_000) << 22);
+		var beforeRestart = future.next();
+
+		var restarted = new SnowflakeIds(7);
+		restarted.advancePast(beforeRestart);
+
+		assertThat(restarted.next()).isGreaterThan(beforeRestart);
+	}
+}
@@ -0,0 +1,55 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.stream.*;
+
+import de.gtrefs.coffeeshop.common.Span.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TracerShould {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void continue_the_trace_of_the_caller() throws IOException {
+		var file = directory.resolve("spans.json");
+		var spans = SpanFile.open(file, 1024 * 1024, 16);
+		var tracer = new Tracer("order", 0, spans);
+
+		var server = tracer.serverSpan("POST /api/order", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+		var client = server.child("POST /api/coffees", Kind.CLIENT).tag("http.status_code", 200);
+		client.end();
+		server.end();
+		spans.close();
+
+		assertThat(client.traceparent()).startsWith("00-0af7651916cd43dd8448eb211c80319c-").endsWith("-01");
+		assertThat(Files.readAllLines(file)).hasSize(2).satisfies(lines -> {
+			assertThat(lines.get(0)).contains("\"traceId\":\"0af7651916cd43dd8448eb211c80319c\"",
+											  "\"name\":\"POST /api/coffees\"", "\"kind\":\"CLIENT\"",
+											  "\"tags\":{\"http.status_code\":\"200\"}");
+			assertThat(lines.get(1)).contains("\"parentId\":\"b7ad6b7169203331\"", "\"serviceName\":\"order\"");
+		});
+	}
+
+	@Test
+	public void sample_only_a_few_traces_per_second_and_export_nothing_of_the_others() throws IOException {
+		var file = directory.resolve("spans.json");
+		var spans = SpanFile.open(file, 1024 * 1024, 1024);
+		var tracer = new Tracer("order", 2, spans);
+
+		var sampled = IntStream.range(0, 100).mapToObj(i -> tracer.serverSpan("GET /api/order/" + i, null)).peek(span -> {
+			span.child("brew", Kind.INTERNAL).end();
+			span.end();
+		}).filter(Span::sampled).count();
+		spans.close();
+
+		// The second might have changed while the spans were started
+		assertThat(sampled).isBetween(2L, 4L);
+		assertThat(Files.readAllLines(file)).hasSize((int) sampled * 2);
+	}
+}
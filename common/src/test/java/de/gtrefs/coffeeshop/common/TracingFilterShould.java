@@ -0,0 +1,36 @@
+package de.gtrefs.coffeeshop.common;
+
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+import org.springframework.mock.web.*;
+import org.springframework.web.servlet.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TracingFilterShould {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void name_server_spans_after_the_route() throws Exception {
+		var file = directory.resolve("spans.json");
+		var spans = SpanFile.open(file, 1024 * 1024, 16);
+		var filter = new TracingFilter(new Tracer("order", 10, spans));
+		var request = new MockHttpServletRequest("GET", "/api/order/382949602021949440");
+		request.addHeader(Span.TRACEPARENT, "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+
+		filter.doFilter(request, new MockHttpServletResponse(), (handled, response) -> {
+			assertThat(TracingFilter.currentSpan()).isPresent();
+			handled.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/order/{id}");
+		});
+		spans.close();
+
+		assertThat(TracingFilter.currentSpan()).isEmpty();
+		assertThat(Files.readAllLines(file)).singleElement().asString()
+											.contains("\"name\":\"GET /api/order/{id}\"", "\"kind\":\"SERVER\"",
+													  "\"parentId\":\"b7ad6b7169203331\"", "\"http.status_code\":\"200\"");
+	}
+}
@@ -0,0 +1,38 @@
+package de.gtrefs.coffeeshop;
+
+import net.jqwik.api.*;
+
+// The orders customers place at the counter. Shared by the properties,
+// which check them one at a time, and by the load generator.
+public final class Orders {
+
+	public static final String KNOWN_FLAVORS = "melange|black|espresso|ristretto|cappuccino";
+
+	private Orders() {
+	}
+
+	public static Arbitrary<Order> withExistingFlavor() {
+		var flavors = Arbitraries.of("Black", "Melange", "Espresso", "Ristretto", "Cappuccino");
+		return Combinators.combine(flavors, creditCardNumbers()).as(Order::new);
+	}
+
+	public static Arbitrary<Order> withRandomFlavor() {
+		var flavors = Arbitraries.strings().ascii().ofMinLength(3).ofMinLength(15);
+		return Combinators.combine(flavors, creditCardNumbers()).as(Order::new);
+	}
+
+	// Order numbers are snowflake ids, so these rarely exist.
+	public static Arbitrary<Long> orderNumbers() {
+		return Arbitraries.longs().between(1, 5000);
+	}
+
+	// Which of the orders placed so far a status check asks for. Null asks for one of
+	// the order numbers above instead, like every check does before an order was placed.
+	public static Arbitrary<Integer> placedOrders() {
+		return Arbitraries.integers().greaterOrEqual(0).injectNull(0.2);
+	}
+
+	private static Arbitrary<String> creditCardNumbers() {
+		return Arbitraries.strings().numeric().ofMinLength(13).ofMaxLength(16);
+	}
+}
@@ -19,6 +19,7 @@ public class CoffeeShopModel {
 
 	private final Pattern matcherForKnownFlavors;
 	private final Map<Long, OrderStatus> orders = new HashMap<>();
+	private final List<Long> placed = new ArrayList<>();
 
 	public CoffeeShopModel(String patternForKnownFlavors){
 		this.matcherForKnownFlavors = Pattern.compile(patternForKnownFlavors);
@@ -32,14 +33,14 @@ public class CoffeeShopModel {
 				var orderNumber = coffeePayed.order.getOrderNumber();
 				assertThat(orderNumber).isGreaterThan(0L);
 				assertThat(coffeePayed.receipt.getBalance()).isGreaterThan(new BigDecimal(-10));
-				orders.put(orderNumber, coffeePayed);
+				record(orderNumber, coffeePayed);
 			}).or(response -> {
 				// TODO: Exercise 2 Verify that the return code is a bad request and save the corresponding state in orders
 			}));
 		}
 		return new ModelResponse(unknownFlavor().andThen(response -> {
 			var orderNotPossible = response.as(OrderStatus.OrderNotPossible.class);
-			orders.put(orderNotPossible.order.getOrderNumber(), orderNotPossible);
+			record(orderNotPossible.order.getOrderNumber(), orderNotPossible);
 		}));
 	}
 
@@ -47,6 +48,17 @@ public class CoffeeShopModel {
 		return matcherForKnownFlavors.matcher(order.getFlavor().toLowerCase()).matches();
 	}
 
+	private void record(Long orderNumber, OrderStatus status) {
+		if(orders.put(orderNumber, status) == null) placed.add(orderNumber);
+	}
+
+	// The order a status check asks for: one which was placed, unless there is none yet
+	// or the check asks for the fallback on purpose.
+	public Long orderNumberOf(Integer placedOrder, Long fallback) {
+		if(placedOrder == null || placed.isEmpty()) return fallback;
+		return placed.get(placedOrder % placed.size());
+	}
+
 	public ModelResponse checkStatus(Long orderId) {
 		return new ModelResponse(response -> {
 			var modelStatus = orders.get(orderId);
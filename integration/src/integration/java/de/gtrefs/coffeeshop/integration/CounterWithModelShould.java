@@ -24,7 +24,7 @@ import static org.hamcrest.Matchers.startsWith;
 // That is: We trade in determinism for speed.
 public class CounterWithModelShould extends CoffeeShop{
 
-	private static CoffeeShopModel model = new CoffeeShopModel("melange|black|espresso|ristretto|cappuccino");
+	private static CoffeeShopModel model = new CoffeeShopModel(Orders.KNOWN_FLAVORS);
 
 	// An example integration test one could write in order to find out if we can order
 	// a latte macchiato. As this coffeeshop is quite new, our baristas are
@@ -72,19 +72,16 @@ public class CounterWithModelShould extends CoffeeShop{
 	}
 
 	private Arbitrary<Action<RequestSpecification>> checkState() {
-		return Arbitraries.longs().between(1, 5000).map(id -> new CheckStatus(model, id));
+		return Combinators.combine(Orders.placedOrders(), Orders.orderNumbers())
+						  .as((placedOrder, fallback) -> new CheckStatus(model, placedOrder, fallback));
 	}
 
 	private Arbitrary<Action<RequestSpecification>> orderRandomFlavor() {
-		var flavors = Arbitraries.strings().ascii().ofMinLength(3).ofMinLength(15);
-		var creditCardNumbers = Arbitraries.strings().numeric().ofMinLength(13).ofMaxLength(16);
-		return Combinators.combine(flavors, creditCardNumbers).as(Order::new).map(order -> new OrderCoffee(model, order, "Random Flavor"));
+		return Orders.withRandomFlavor().map(order -> new OrderCoffee(model, order, "Random Flavor"));
 	}
 
 	private Arbitrary<Action<RequestSpecification>> orderExistingFlavor() {
-		var flavors = Arbitraries.of("Black", "Melange", "Espresso", "Ristretto", "Cappuccino");
-		var creditCardNumbers = Arbitraries.strings().numeric().ofMinLength(13).ofMaxLength(16);
-		return Combinators.combine(flavors, creditCardNumbers).as(Order::new).map(order -> new OrderCoffee(model, order, "Existing Flavor"));
+		return Orders.withExistingFlavor().map(order -> new OrderCoffee(model, order, "Existing Flavor"));
 	}
 
 	// Exercise 2: We don't want to run people into significant debt. When the balance of the credit card drops
@@ -142,11 +139,14 @@ public class CounterWithModelShould extends CoffeeShop{
 	public class CheckStatus implements Action<RequestSpecification> {
 
 		private final CoffeeShopModel model;
+		private final Integer placedOrder;
+		private final Long fallback;
 		private Long orderId;
 
-		public CheckStatus(CoffeeShopModel model, Long orderId) {
+		public CheckStatus(CoffeeShopModel model, Integer placedOrder, Long fallback) {
 			this.model = model;
-			this.orderId = orderId;
+			this.placedOrder = placedOrder;
+			this.fallback = fallback;
 		}
 
 		@Override
@@ -157,6 +157,8 @@ public class CounterWithModelShould extends CoffeeShop{
 
 		@Override
 		public RequestSpecification run(RequestSpecification state) {
+			// Orders are placed while the sequence runs, so the order number is chosen then
+			orderId = model.orderNumberOf(placedOrder, fallback);
 			var response = state.body(orderId).get("/order/"+orderId);
 			model.checkStatus(orderId).checkPostCondition(response);
 			return state;
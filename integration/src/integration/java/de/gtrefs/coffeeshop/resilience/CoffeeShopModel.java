@@ -2,12 +2,15 @@ package de.gtrefs.coffeeshop.resilience;
 
 import de.gtrefs.coffeeshop.Order;
 import de.gtrefs.coffeeshop.OrderStatus;
+import de.gtrefs.coffeeshop.resilience.ResponseTimes.Faults;
 import io.restassured.response.Response;
 import io.vavr.control.Try;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
@@ -21,8 +24,11 @@ public class CoffeeShopModel {
 
 	private final Pattern matcherForKnownFlavors;
 	private final Map<Long, OrderStatus> orders = new HashMap<>();
+	private final List<Long> placed = new ArrayList<>();
 	private boolean databaseEnabled = true;
 	private boolean paymentProviderEnabled = true;
+	private Degradation databaseDegradation;
+	private Degradation paymentProviderDegradation;
 
 	public CoffeeShopModel(String patternForKnownFlavors){
 		this.matcherForKnownFlavors = Pattern.compile(patternForKnownFlavors);
@@ -36,17 +42,17 @@ public class CoffeeShopModel {
 				var orderNumber = coffeePayed.order.getOrderNumber();
 				assertThat(orderNumber).isGreaterThan(0L);
 				assertThat(coffeePayed.receipt.getBalance()).isGreaterThan(new BigDecimal(-10));
-				orders.put(orderNumber, coffeePayed);
+				record(orderNumber, coffeePayed);
 			}).or(response -> {
 				assertThat(response.getStatusCode()).isEqualTo(400);
 				var orderNotPossible = response.as(OrderStatus.OrderNotPossible.class);
 				assertThat(orderNotPossible.error.details.get(0)).isEqualTo("Insufficient funds for credit card: " + modelOrder.getCreditCardNumber());
-				orders.put(orderNotPossible.order.getOrderNumber(), orderNotPossible);
+				record(orderNotPossible.order.getOrderNumber(), orderNotPossible);
 			}));
 		}
 		return new ModelResponse(unknownFlavor().andThen(response -> {
 			var orderNotPossible = response.as(OrderStatus.OrderNotPossible.class);
-			orders.put(orderNotPossible.order.getOrderNumber(), orderNotPossible);
+			record(orderNotPossible.order.getOrderNumber(), orderNotPossible);
 		}));
 	}
 
@@ -54,6 +60,17 @@ public class CoffeeShopModel {
 		return matcherForKnownFlavors.matcher(order.getFlavor().toLowerCase()).matches();
 	}
 
+	private void record(Long orderNumber, OrderStatus status) {
+		if(orders.put(orderNumber, status) == null) placed.add(orderNumber);
+	}
+
+	// The order a status check asks for: one which was placed, unless there is none yet
+	// or the check asks for the fallback on purpose.
+	public Long orderNumberOf(Integer placedOrder, Long fallback) {
+		if(placedOrder == null || placed.isEmpty()) return fallback;
+		return placed.get(placedOrder % placed.size());
+	}
+
 	public ModelResponse checkStatus(Long orderId) {
 		return new ModelResponse(response -> {
 			var modelStatus = orders.get(orderId);
@@ -65,6 +82,34 @@ public class CoffeeShopModel {
 		});
 	}
 
+	public Faults faults() {
+		return Faults.of(!databaseEnabled, !paymentProviderEnabled, databaseDegradation, paymentProviderDegradation);
+	}
+
+	public boolean isDatabaseDegraded() {
+		return databaseDegradation != null;
+	}
+
+	public void degradeDatabase(Degradation degradation) {
+		this.databaseDegradation = degradation;
+	}
+
+	public void restoreDatabase() {
+		this.databaseDegradation = null;
+	}
+
+	public boolean isPaymentProviderDegraded() {
+		return paymentProviderDegradation != null;
+	}
+
+	public void degradePaymentProvider(Degradation degradation) {
+		this.paymentProviderDegradation = degradation;
+	}
+
+	public void restorePaymentProvider() {
+		this.paymentProviderDegradation = null;
+	}
+
 	public boolean databaseEnabled() {
 		return databaseEnabled;
 	}
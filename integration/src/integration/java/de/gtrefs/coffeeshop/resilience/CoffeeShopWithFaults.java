@@ -3,6 +3,7 @@ package de.gtrefs.coffeeshop.resilience;
 import java.io.*;
 import java.lang.reflect.*;
 import java.nio.file.*;
+import java.time.*;
 import java.util.*;
 
 import eu.rekawek.toxiproxy.*;
@@ -30,6 +31,9 @@ public  class CoffeeShopWithFaults {
 
 	static Network network = Network.newNetwork();
 
+	// Each attempt of the order service to charge a card
+	static final Duration PAYMENT_TIMEOUT = Duration.ofMillis(200);
+
 	protected static ImageFromDockerfile coffeeImage = new ImageFromDockerfile("coffee:latest", false)
 			.withDockerfile(Paths.get("../Dockerfile-coffee").toAbsolutePath());
 
@@ -100,7 +104,8 @@ public  class CoffeeShopWithFaults {
 
 	private static void startPaymentContainerWithToxic() {
 		paymentProxy = new EnableAndDisableProxy(toxiProxy, paymentContainer, 8080);
-		orderContainer.withEnv("coffeeshop.payment.endpoint", "http://toxiproxy:"+paymentProxy.containerProxyPort());
+		orderContainer.withEnv("coffeeshop.payment.endpoint", "http://toxiproxy:"+paymentProxy.containerProxyPort())
+					  .withEnv("coffeeshop.payment.timeout", PAYMENT_TIMEOUT.toMillis() + "ms");
 		paymentContainer.start();
 	}
 
@@ -174,6 +179,24 @@ public  class CoffeeShopWithFaults {
 			}
 		}
 
+		public void degrade(Degradation degradation) {
+			try {
+				degradation.applyTo(proxyFromToxic.toxics());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void restore() {
+			try {
+				for (Toxic toxic : proxyFromToxic.toxics().getAll()) {
+					toxic.remove();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
 		public ToxicList toxics(){
 			return proxyFromToxic.toxics();
 		}
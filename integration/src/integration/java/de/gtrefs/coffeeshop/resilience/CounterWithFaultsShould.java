@@ -1,9 +1,13 @@
 package de.gtrefs.coffeeshop.resilience;
 
+import java.time.*;
+
 import de.gtrefs.coffeeshop.*;
+import de.gtrefs.coffeeshop.resilience.ResponseTimes.*;
 import io.restassured.specification.*;
 
 import net.jqwik.api.*;
+import net.jqwik.api.lifecycle.*;
 import net.jqwik.api.stateful.*;
 import net.jqwik.api.statistics.*;
 
@@ -19,7 +23,39 @@ import net.jqwik.api.statistics.*;
 //
 public class CounterWithFaultsShould extends CoffeeShopWithFaults {
 
-	private static final CoffeeShopModel model = new CoffeeShopModel("melange|black|espresso|ristretto|cappuccino");
+	private static final CoffeeShopModel model = new CoffeeShopModel(Orders.KNOWN_FLAVORS);
+	private static final ResponseTimes responseTimes = new ResponseTimes();
+
+	private static final String ORDER_EXISTING_FLAVOR = "Order Coffee: Existing Flavor";
+	private static final String ORDER_RANDOM_FLAVOR = "Order Coffee: Random Flavor";
+	private static final String CHECK_STATUS = "Check order state";
+	// coffeeshop.payment.retry.max-attempts of the order service counts the retries, so one more attempt
+	private static final int PAYMENT_ATTEMPTS = 3;
+
+	@BeforeProperty
+	public void forget_response_times() {
+		responseTimes.reset();
+	}
+
+	// Staying responsive means answering in time, also while faults are injected. The
+	// second barista takes over after 100ms at the latest, so an order may take that
+	// long before the circuit to a failing service opens, but not much longer.
+	@AfterProperty
+	public void answer_in_time() {
+		logger.info("Response times by action and injected faults:\n{}", responseTimes);
+		responseTimes.assertPercentile(ORDER_RANDOM_FLAVOR, anyFaults -> true, 99, Duration.ofMillis(50));
+		responseTimes.assertPercentile(CHECK_STATUS, anyFaults -> true, 99, Duration.ofMillis(100));
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, Faults.NONE, 99, Duration.ofMillis(150));
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, Faults.DATABASE_DOWN, 90, Duration.ofMillis(150));
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, Faults.DATABASE_DOWN, 99, Duration.ofMillis(300));
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, Faults.PAYMENT_PROVIDER_DOWN, 99, Duration.ofMillis(300));
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, Faults.DATABASE_AND_PAYMENT_PROVIDER_DOWN, 99, Duration.ofMillis(300));
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, faults -> faults.databaseDegraded() && !faults.paymentProviderDegraded(),
+									   99, Duration.ofMillis(300));
+		// Every attempt to charge times out, after the last one the customer pays by cash
+		responseTimes.assertPercentile(ORDER_EXISTING_FLAVOR, Faults::paymentProviderDegraded,
+									   99, PAYMENT_TIMEOUT.multipliedBy(PAYMENT_ATTEMPTS).plusMillis(300));
+	}
 
 	@Property(shrinking = ShrinkingMode.OFF, tries = 100)
 	public void return_unsuccessful_orders(@ForAll("order_existing_and_not_existing_flavors") ActionSequence<RequestSpecification> actions) {
@@ -57,6 +93,24 @@ public class CounterWithFaultsShould extends CoffeeShopWithFaults {
 
 	// (Optional) Exercise 4: Inject both faults randomly while exercising the service
 
+	// Services are rarely just up or down. A slow database or payment provider should
+	// not make the counter slow: the fallbacks have to kick in before the timeouts.
+	@Property(shrinking = ShrinkingMode.OFF, tries = 100)
+	public void stay_responsive_when_services_degrade(@ForAll("orders_with_degraded_services") ActionSequence<RequestSpecification> actions) {
+		actions.run(counter);
+	}
+
+	@Provide
+	private ActionSequenceArbitrary<RequestSpecification> orders_with_degraded_services(){
+		return Arbitraries.sequences(Arbitraries.frequencyOf(Tuple.of(50, orderExistingFlavor()),
+				Tuple.of(10, orderRandomFlavor()),
+				Tuple.of(5, Degradation.degradations().map(degradation -> new DegradeDatabase(model, degradation))),
+				Tuple.of(5, Arbitraries.create(() -> new RestoreDatabase(model))),
+				Tuple.of(5, Degradation.degradations().map(degradation -> new DegradePaymentProvider(model, degradation))),
+				Tuple.of(5, Arbitraries.create(() -> new RestorePaymentProvider(model))),
+				Tuple.of(10, checkState())));
+	}
+
 	private Arbitrary<Action<RequestSpecification>> disablePaymentProvider() {
 		// TODO: Exercise 3 Create action
 		return Arbitraries.create(() -> null);
@@ -68,19 +122,16 @@ public class CounterWithFaultsShould extends CoffeeShopWithFaults {
 	}
 
 	private Arbitrary<Action<RequestSpecification>> checkState() {
-		return Arbitraries.longs().between(1, 5000).map(id -> new CheckStatus(model, id));
+		return Combinators.combine(Orders.placedOrders(), Orders.orderNumbers())
+						  .as((placedOrder, fallback) -> new CheckStatus(model, placedOrder, fallback));
 	}
 
 	private Arbitrary<Action<RequestSpecification>> orderRandomFlavor() {
-		var flavors = Arbitraries.strings().ascii().ofMinLength(3).ofMinLength(15);
-		var creditCardNumbers = Arbitraries.strings().numeric().ofMinLength(13).ofMaxLength(16);
-		return Combinators.combine(flavors, creditCardNumbers).as(Order::new).map(order -> new OrderCoffee(model, order, "Random Flavor"));
+		return Orders.withRandomFlavor().map(order -> new OrderCoffee(model, order, ORDER_RANDOM_FLAVOR));
 	}
 
 	private Arbitrary<Action<RequestSpecification>> orderExistingFlavor() {
-		var flavors = Arbitraries.of("Black", "Melange", "Espresso", "Ristretto", "Cappuccino");
-		var creditCardNumbers = Arbitraries.strings().numeric().ofMinLength(13).ofMaxLength(16);
-		return Combinators.combine(flavors, creditCardNumbers).as(Order::new).map(order -> new OrderCoffee(model, order, "Existing Flavor"));
+		return Orders.withExistingFlavor().map(order -> new OrderCoffee(model, order, ORDER_EXISTING_FLAVOR));
 	}
 
 	public class OrderCoffee implements Action<RequestSpecification> {
@@ -97,13 +148,16 @@ public class CounterWithFaultsShould extends CoffeeShopWithFaults {
 
 		@Override
 		public boolean precondition(RequestSpecification state) {
-			Statistics.label("Action").collect("Order Coffee: "+statisticsMessage);
+			Statistics.label("Action").collect(statisticsMessage);
 			return true;
 		}
 
 		@Override
 		public RequestSpecification run(RequestSpecification state) {
+			var faults = model.faults();
+			var sent = System.nanoTime();
 			var response = state.body(order).post("/order");
+			responseTimes.record(statisticsMessage, faults, System.nanoTime() - sent);
 			model.order(order).checkPostCondition(response);
 			return state;
 		}
@@ -119,22 +173,30 @@ public class CounterWithFaultsShould extends CoffeeShopWithFaults {
 	public class CheckStatus implements Action<RequestSpecification> {
 
 		private final CoffeeShopModel model;
+		private final Integer placedOrder;
+		private final Long fallback;
 		private Long orderId;
 
-		public CheckStatus(CoffeeShopModel model, Long orderId) {
+		public CheckStatus(CoffeeShopModel model, Integer placedOrder, Long fallback) {
 			this.model = model;
-			this.orderId = orderId;
+			this.placedOrder = placedOrder;
+			this.fallback = fallback;
 		}
 
 		@Override
 		public boolean precondition(RequestSpecification state) {
-			Statistics.label("Action").collect("Check order state");
+			Statistics.label("Action").collect(CHECK_STATUS);
 			return true;
 		}
 
 		@Override
 		public RequestSpecification run(RequestSpecification state) {
+			// Orders are placed while the sequence runs, so the order number is chosen then
+			orderId = model.orderNumberOf(placedOrder, fallback);
+			var faults = model.faults();
+			var sent = System.nanoTime();
 			var response = state.body(orderId).get("/order/"+orderId);
+			responseTimes.record(CHECK_STATUS, faults, System.nanoTime() - sent);
 			model.checkStatus(orderId).checkPostCondition(response);
 			return state;
 		}
@@ -267,4 +329,132 @@ public class CounterWithFaultsShould extends CoffeeShopWithFaults {
 		}
 	}
 
-}
+	public class DegradeDatabase implements Action<RequestSpecification> {
+
+		private final CoffeeShopModel model;
+		private final Degradation degradation;
+
+		public DegradeDatabase(CoffeeShopModel model, Degradation degradation) {
+			this.model = model;
+			this.degradation = degradation;
+		}
+
+		@Override
+		public boolean precondition(RequestSpecification state) {
+			boolean databaseHealthy = !model.isDatabaseDegraded();
+			if (databaseHealthy) {
+				Statistics.label("Fault Injection").collect("Degrade Database: " + degradation.kind());
+			}
+			return databaseHealthy;
+		}
+
+		@Override
+		public RequestSpecification run(RequestSpecification state) {
+			postgresProxy.degrade(degradation);
+			model.degradeDatabase(degradation);
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			return "DegradeDatabase{" +
+					"degradation=" + degradation +
+					'}';
+		}
+	}
+
+	public class RestoreDatabase implements Action<RequestSpecification> {
+
+		private final CoffeeShopModel model;
+
+		public RestoreDatabase(CoffeeShopModel model) {
+			this.model = model;
+		}
+
+		@Override
+		public boolean precondition(RequestSpecification state) {
+			boolean databaseDegraded = model.isDatabaseDegraded();
+			if (databaseDegraded) {
+				Statistics.label("Fault Injection").collect("Restore Database");
+			}
+			return databaseDegraded;
+		}
+
+		@Override
+		public RequestSpecification run(RequestSpecification state) {
+			postgresProxy.restore();
+			model.restoreDatabase();
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			return "RestoreDatabase{}";
+		}
+	}
+
+	public class DegradePaymentProvider implements Action<RequestSpecification> {
+
+		private final CoffeeShopModel model;
+		private final Degradation degradation;
+
+		public DegradePaymentProvider(CoffeeShopModel model, Degradation degradation) {
+			this.model = model;
+			this.degradation = degradation;
+		}
+
+		@Override
+		public boolean precondition(RequestSpecification state) {
+			boolean paymentProviderHealthy = !model.isPaymentProviderDegraded();
+			if (paymentProviderHealthy) {
+				Statistics.label("Fault Injection").collect("Degrade Payment Provider: " + degradation.kind());
+			}
+			return paymentProviderHealthy;
+		}
+
+		@Override
+		public RequestSpecification run(RequestSpecification state) {
+			paymentProxy.degrade(degradation);
+			model.degradePaymentProvider(degradation);
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			return "DegradePaymentProvider{" +
+					"degradation=" + degradation +
+					'}';
+		}
+	}
+
+	public class RestorePaymentProvider implements Action<RequestSpecification> {
+
+		private final CoffeeShopModel model;
+
+		public RestorePaymentProvider(CoffeeShopModel model) {
+			this.model = model;
+		}
+
+		@Override
+		public boolean precondition(RequestSpecification state) {
+			boolean paymentProviderDegraded = model.isPaymentProviderDegraded();
+			if (paymentProviderDegraded) {
+				Statistics.label("Fault Injection").collect("Restore Payment Provider");
+			}
+			return paymentProviderDegraded;
+		}
+
+		@Override
+		public RequestSpecification run(RequestSpecification state) {
+			paymentProxy.restore();
+			model.restorePaymentProvider();
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			return "RestorePaymentProvider{}";
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package de.gtrefs.coffeeshop.resilience;
+
+import java.io.*;
+import java.time.*;
+
+import eu.rekawek.toxiproxy.model.*;
+
+import net.jqwik.api.*;
+
+// A connection which still works, but badly: answers are late, trickle in, the
+// connection is not closed in time or hangs until it is closed. Outages only show
+// whether there is a fallback, degradations show whether it kicks in soon enough.
+//
+// Toxics only act on what the service sends back. None of them delays longer than
+// MAX_DELAY, so a property always comes to an end, even where nothing times out.
+public class Degradation {
+
+	static final Duration MAX_DELAY = Duration.ofSeconds(1);
+
+	private final String kind;
+	private final String description;
+	private final Toxics toxics;
+
+	private Degradation(String kind, String description, Toxics toxics) {
+		this.kind = kind;
+		this.description = description;
+		this.toxics = toxics;
+	}
+
+	public static Degradation latency(Duration latency, Duration jitter) {
+		return new Degradation("latency", String.format("latency of %dms, jitter %dms", latency.toMillis(), jitter.toMillis()),
+							   toxics -> toxics.latency("latency", ToxicDirection.DOWNSTREAM, latency.toMillis())
+											   .setJitter(jitter.toMillis()));
+	}
+
+	public static Degradation bandwidth(long kilobytesPerSecond) {
+		return new Degradation("limited bandwidth", String.format("bandwidth of %dKB/s", kilobytesPerSecond),
+							   toxics -> toxics.bandwidth("bandwidth", ToxicDirection.DOWNSTREAM, kilobytesPerSecond));
+	}
+
+	public static Degradation slowClose(Duration delay) {
+		return new Degradation("slow close", String.format("closing %dms late", delay.toMillis()),
+							   toxics -> toxics.slowClose("slow-close", ToxicDirection.DOWNSTREAM, delay.toMillis()));
+	}
+
+	public static Degradation timeout(Duration timeout) {
+		return new Degradation("timeout", String.format("no data and closed after %dms", timeout.toMillis()),
+							   toxics -> toxics.timeout("timeout", ToxicDirection.DOWNSTREAM, timeout.toMillis()));
+	}
+
+	public static Arbitrary<Degradation> degradations() {
+		var delays = Arbitraries.longs().between(10, MAX_DELAY.toMillis() / 2).map(Duration::ofMillis);
+		var latencies = Combinators.combine(delays, Arbitraries.integers().between(0, 50))
+								   .as((latency, jitterPercent) -> latency(latency, latency.multipliedBy(jitterPercent).dividedBy(100)));
+		var bandwidths = Arbitraries.longs().between(1, 1000).map(Degradation::bandwidth);
+		var slowCloses = Arbitraries.longs().between(10, MAX_DELAY.toMillis()).map(Duration::ofMillis).map(Degradation::slowClose);
+		var timeouts = Arbitraries.longs().between(100, MAX_DELAY.toMillis()).map(Duration::ofMillis).map(Degradation::timeout);
+		return Arbitraries.oneOf(latencies, bandwidths, slowCloses, timeouts);
+	}
+
+	void applyTo(ToxicList toxics) throws IOException {
+		this.toxics.add(toxics);
+	}
+
+	// Response times are kept by kind, the exact toxic hardly repeats
+	public String kind() {
+		return kind;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+	private interface Toxics {
+		void add(ToxicList toxics) throws IOException;
+	}
+}
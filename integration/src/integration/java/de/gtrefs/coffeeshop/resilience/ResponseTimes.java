@@ -0,0 +1,144 @@
+package de.gtrefs.coffeeshop.resilience;
+
+import java.time.*;
+import java.time.temporal.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.HdrHistogram.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Response times of the actions of a property, kept apart by the faults which were
+// injected while the action ran. Slow fallbacks are a failure as well, they just do
+// not show up in a single response. Percentiles over all tries of a property show them.
+//
+// Percentiles of a handful of responses say nothing, so an objective is only checked
+// once enough responses have been recorded for its action and faults.
+public class ResponseTimes {
+
+	private static final int MIN_RESPONSES = 50;
+
+	private final Map<String, Map<Faults, Times>> times = new TreeMap<>();
+
+	public void record(String action, Faults faults, long nanos) {
+		times.computeIfAbsent(action, a -> new TreeMap<>(Comparator.comparing(Faults::toString)))
+			 .computeIfAbsent(faults, f -> new Times())
+			 .record(nanos);
+	}
+
+	public Duration percentile(String action, Faults faults, double percentile) {
+		var recorded = times.getOrDefault(action, Map.of()).get(faults);
+		if(recorded == null) return Duration.ZERO;
+		return Duration.of(recorded.histogram.getValueAtPercentile(percentile), ChronoUnit.MICROS);
+	}
+
+	public long count(String action, Faults faults) {
+		var recorded = times.getOrDefault(action, Map.of()).get(faults);
+		return recorded == null ? 0 : recorded.histogram.getTotalCount();
+	}
+
+	// E.g. responseTimes.assertPercentile("Order Coffee", Faults.DATABASE_DOWN, 99, Duration.ofMillis(150))
+	public void assertPercentile(String action, Faults faults, double percentile, Duration max) {
+		assertPercentile(action, faults::equals, percentile, max);
+	}
+
+	// E.g. responseTimes.assertPercentile("Order Coffee", Faults::databaseDegraded, 99, Duration.ofMillis(300))
+	public void assertPercentile(String action, Predicate<Faults> whileInjected, double percentile, Duration max) {
+		times.getOrDefault(action, Map.of()).keySet().stream().filter(whileInjected).forEach(faults -> {
+			if(count(action, faults) < MIN_RESPONSES) return;
+			assertThat(percentile(action, faults, percentile))
+					.as("p%s of %s while %s", percentile, action, faults)
+					.isLessThanOrEqualTo(max);
+		});
+	}
+
+	public void reset() {
+		times.clear();
+	}
+
+	// Actions run one after the other, so throughput drops as response times grow
+	@Override
+	public String toString() {
+		var table = new StringBuilder();
+		times.forEach((action, byFaults) -> byFaults.forEach((faults, recorded) -> {
+			var histogram = recorded.histogram;
+			table.append(String.format(Locale.ROOT,
+					"%-30s while %-60s %6d responses, %7.1f/s, p50 %8.2f ms, p99 %8.2f ms, max %8.2f ms%n", action, faults,
+					histogram.getTotalCount(), histogram.getTotalCount() / (recorded.nanos / 1e9),
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+					histogram.getMaxValue() / 1000.0));
+		}));
+		return table.toString();
+	}
+
+	private static class Times {
+		private final Histogram histogram = new Histogram(3);
+		private long nanos;
+
+		private void record(long nanos) {
+			histogram.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+			this.nanos += nanos;
+		}
+	}
+
+	public static class Faults {
+		public static final Faults NONE = of(false, false);
+		public static final Faults DATABASE_DOWN = of(true, false);
+		public static final Faults PAYMENT_PROVIDER_DOWN = of(false, true);
+		public static final Faults DATABASE_AND_PAYMENT_PROVIDER_DOWN = of(true, true);
+
+		private final String description;
+		private final boolean databaseDegraded;
+		private final boolean paymentProviderDegraded;
+
+		private Faults(String description, boolean databaseDegraded, boolean paymentProviderDegraded) {
+			this.description = description;
+			this.databaseDegraded = databaseDegraded;
+			this.paymentProviderDegraded = paymentProviderDegraded;
+		}
+
+		static Faults of(boolean databaseDown, boolean paymentProviderDown) {
+			return of(databaseDown, paymentProviderDown, null, null);
+		}
+
+		// A service which is down is not degraded any more
+		static Faults of(boolean databaseDown, boolean paymentProviderDown, Degradation database, Degradation paymentProvider) {
+			var faults = new StringJoiner(" and ");
+			faults.setEmptyValue("no faults");
+			var databaseDegraded = !databaseDown && database != null;
+			var paymentProviderDegraded = !paymentProviderDown && paymentProvider != null;
+			if(databaseDown) faults.add("database down");
+			if(databaseDegraded) faults.add("database with " + database.kind());
+			if(paymentProviderDown) faults.add("payment provider down");
+			if(paymentProviderDegraded) faults.add("payment provider with " + paymentProvider.kind());
+			return new Faults(faults.toString(), databaseDegraded, paymentProviderDegraded);
+		}
+
+		public boolean databaseDegraded() {
+			return databaseDegraded;
+		}
+
+		public boolean paymentProviderDegraded() {
+			return paymentProviderDegraded;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(o == null || getClass() != o.getClass()) return false;
+			return description.equals(((Faults) o).description);
+		}
+
+		@Override
+		public int hashCode() {
+			return description.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+}
@@ -1,5 +1,7 @@
+create sequence tbl_cup_seq start with 1 increment by 50;
+
 create table tbl_cup (
-  id  bigserial not null,
+  id  bigint not null,
   flavor varchar(255),
   primary key (id)
 );
\ No newline at end of file
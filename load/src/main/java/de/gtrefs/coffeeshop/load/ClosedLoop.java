@@ -0,0 +1,48 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.net.http.*;
+import java.time.*;
+import java.util.concurrent.*;
+
+// A fixed number of users, each of which sends the next request as soon as the
+// previous one was answered. The rate follows how fast the coffee shop answers.
+public class ClosedLoop {
+
+	private final HttpClient client;
+	private final Workload workload;
+	private final Latencies latencies;
+	private final int users;
+
+	public ClosedLoop(HttpClient client, Workload workload, Latencies latencies, int users) {
+		this.client = client;
+		this.workload = workload;
+		this.latencies = latencies;
+		this.users = users;
+	}
+
+	public void run(Duration warmUp, Duration duration) throws InterruptedException {
+		var end = System.nanoTime() + warmUp.toNanos() + duration.toNanos();
+		var done = new CountDownLatch(users);
+		for (int user = 0; user < users; user++) {
+			nextRequest(end, done);
+		}
+		Thread.sleep(warmUp.toMillis());
+		latencies.measureFrom(System.nanoTime());
+		done.await();
+	}
+
+	private void nextRequest(long end, CountDownLatch done) {
+		if(System.nanoTime() - end >= 0){
+			done.countDown();
+			return;
+		}
+		var call = workload.next();
+		var sent = System.nanoTime();
+		client.sendAsync(workload.requestFor(call), HttpResponse.BodyHandlers.ofString())
+			  .whenComplete((response, error) -> {
+				  latencies.record(call.kind, sent, response, error);
+				  workload.completed(call, response);
+				  nextRequest(end, done);
+			  });
+	}
+}
@@ -0,0 +1,17 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.net.*;
+
+import de.gtrefs.coffeeshop.integration.*;
+
+// The coffee shop of the integration tests. Loading this class starts the containers.
+class CoffeeShopInContainers extends CoffeeShop {
+
+	static URI counter() {
+		return URI.create("http://localhost:" + orderContainer.getMappedPort(8080) + "/api/");
+	}
+
+	static void shutDown() {
+		stop();
+	}
+}
@@ -0,0 +1,95 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.net.http.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import de.gtrefs.coffeeshop.load.Workload.*;
+import org.HdrHistogram.*;
+
+// Latencies in microseconds and outcomes by kind of request. Recording is safe from
+// any thread. Requests which should have been sent before the measurement started are
+// left out, even if they are answered later, e.g. the backlog of the warm-up.
+public class Latencies {
+
+	private final Map<Kind, Recorder> recorders = new EnumMap<>(Kind.class);
+	private final Map<Kind, Outcomes> outcomes = new EnumMap<>(Kind.class);
+	private volatile long measuringFrom = System.nanoTime();
+	private final AtomicLong lastAnswered = new AtomicLong(measuringFrom);
+
+	public Latencies() {
+		for (Kind kind : Kind.values()) {
+			recorders.put(kind, new Recorder(3));
+			outcomes.put(kind, new Outcomes());
+		}
+	}
+
+	// Measured from when the request should have been sent, not from when it was sent.
+	public void record(Kind kind, long intendedStart, HttpResponse<?> response, Throwable error) {
+		if(intendedStart - measuringFrom < 0) return;
+		var now = System.nanoTime();
+		lastAnswered.accumulateAndGet(now, Math::max);
+		var latency = TimeUnit.NANOSECONDS.toMicros(now - intendedStart);
+		recorders.get(kind).recordValue(Math.max(1, latency));
+		outcomes.get(kind).count(response, error);
+	}
+
+	public void measureFrom(long nanoTime) {
+		measuringFrom = nanoTime;
+		lastAnswered.set(nanoTime);
+		recorders.values().forEach(Recorder::reset);
+		outcomes.values().forEach(Outcomes::reset);
+	}
+
+	public Map<Kind, Histogram> histograms() {
+		var histograms = new EnumMap<Kind, Histogram>(Kind.class);
+		recorders.forEach((kind, recorder) -> histograms.put(kind, recorder.getIntervalHistogram()));
+		return histograms;
+	}
+
+	public Outcomes outcomes(Kind kind) {
+		return outcomes.get(kind);
+	}
+
+	// From the start of the measurement until the last answer came in
+	public long nanosMeasured() {
+		return Math.max(1, lastAnswered.get() - measuringFrom);
+	}
+
+	public static class Outcomes {
+		private final LongAdder successful = new LongAdder();
+		private final LongAdder clientErrors = new LongAdder();
+		private final LongAdder serverErrors = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+
+		private void count(HttpResponse<?> response, Throwable error) {
+			if(error != null || response == null){
+				failed.increment();
+			} else if(response.statusCode() >= 500){
+				serverErrors.increment();
+			} else if(response.statusCode() >= 400){
+				clientErrors.increment();
+			} else {
+				successful.increment();
+			}
+		}
+
+		private void reset() {
+			successful.reset();
+			clientErrors.reset();
+			serverErrors.reset();
+			failed.reset();
+		}
+
+		public long total() {
+			return successful.sum() + clientErrors.sum() + serverErrors.sum() + failed.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("2xx/3xx %d, 4xx %d, 5xx %d, no response %d",
+								 successful.sum(), clientErrors.sum(), serverErrors.sum(), failed.sum());
+		}
+	}
+}
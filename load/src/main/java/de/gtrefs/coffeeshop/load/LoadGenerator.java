@@ -0,0 +1,88 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.net.*;
+import java.net.http.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.slf4j.*;
+
+// Puts load on the counter of the coffee shop and writes a latency report.
+//
+//   --target      Base URL of the order service, e.g. http://localhost:8080/api/.
+//                 Without it, the coffee shop is started in containers.
+//   --rate        Requests per second, sent no matter how fast they are answered (open loop)
+//   --users       Users sending one request after the other instead (closed loop)
+//   --duration    How long to measure, e.g. 60s or 5m. Default 60s.
+//   --warm-up     How long to send requests before measuring. Default 10s.
+//   --timeout     Requests without an answer after this count as failed. Default 10s.
+//   --max-in-flight  Requests the open loop waits for at most. Default 1000.
+//   --report      Where to write the report. Default build/reports/load/report.txt.
+public class LoadGenerator {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+	public static void main(String[] args) throws Exception {
+		var options = options(args);
+		var inContainers = !options.containsKey("target");
+		var counter = inContainers ? CoffeeShopInContainers.counter() : URI.create(withSlash(options.get("target")));
+		var duration = duration(options.getOrDefault("duration", "60s"));
+		var warmUp = duration(options.getOrDefault("warm-up", "10s"));
+		var timeout = duration(options.getOrDefault("timeout", "10s"));
+		var report = Paths.get(options.getOrDefault("report", "build/reports/load/report.txt"));
+
+		var client = HttpClient.newBuilder().connectTimeout(timeout).executor(Executors.newCachedThreadPool()).build();
+		var workload = new Workload(counter, timeout);
+		var latencies = new Latencies();
+		String description;
+		try {
+			if(options.containsKey("users")){
+				var users = Integer.parseInt(options.get("users"));
+				description = String.format("%s with %d users for %s after a warm-up of %s", counter, users, duration, warmUp);
+				logger.info("Load on {}", description);
+				new ClosedLoop(client, workload, latencies, users).run(warmUp, duration);
+			} else {
+				var rate = Integer.parseInt(options.getOrDefault("rate", "100"));
+				var maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "1000"));
+				description = String.format("%s at %d requests/s for %s after a warm-up of %s", counter, rate, duration, warmUp);
+				logger.info("Load on {}", description);
+				new OpenLoop(client, workload, latencies, rate, maxInFlight).run(warmUp, duration);
+			}
+		} finally {
+			if(inContainers){
+				CoffeeShopInContainers.shutDown();
+			}
+		}
+		var summary = new Report(description, latencies).writeTo(report);
+		logger.info("Report written to {}:\n{}", report.toAbsolutePath(), summary);
+		System.exit(0);
+	}
+
+	private static Map<String, String> options(String[] args) {
+		var options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if(!args[i].startsWith("--")) throw new IllegalArgumentException("Expected an option instead of " + args[i]);
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		return options;
+	}
+
+	// 500ms, 60s, 5m or ISO-8601 like PT1M
+	private static Duration duration(String value) {
+		if(value.startsWith("PT")) return Duration.parse(value);
+		if(value.endsWith("ms")) return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+		var amount = Long.parseLong(value.substring(0, value.length() - 1));
+		switch (value.charAt(value.length() - 1)) {
+			case 's': return Duration.ofSeconds(amount);
+			case 'm': return Duration.ofMinutes(amount);
+			case 'h': return Duration.ofHours(amount);
+			default: throw new IllegalArgumentException("Unknown duration " + value);
+		}
+	}
+
+	private static String withSlash(String url) {
+		return url.endsWith("/") ? url : url + "/";
+	}
+}
@@ -0,0 +1,52 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.net.http.*;
+import java.time.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+// Sends requests at a fixed rate, no matter how long the coffee shop takes to answer.
+// Each request has a time at which it should be sent. Its latency is measured from then,
+// so that a request which was sent late because the generator fell behind still counts
+// the time it waited (no coordinated omission).
+public class OpenLoop {
+
+	private final HttpClient client;
+	private final Workload workload;
+	private final Latencies latencies;
+	private final int requestsPerSecond;
+	private final int maxInFlight;
+
+	public OpenLoop(HttpClient client, Workload workload, Latencies latencies, int requestsPerSecond, int maxInFlight) {
+		this.client = client;
+		this.workload = workload;
+		this.latencies = latencies;
+		this.requestsPerSecond = requestsPerSecond;
+		this.maxInFlight = maxInFlight;
+	}
+
+	public void run(Duration warmUp, Duration duration) throws InterruptedException {
+		var inFlight = new Semaphore(maxInFlight);
+		var interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+		var start = System.nanoTime();
+		var measureFrom = start + warmUp.toNanos();
+		var end = measureFrom + duration.toNanos();
+		latencies.measureFrom(measureFrom);
+		for (long sent = 0; ; sent++) {
+			var intendedStart = start + sent * interval;
+			if(intendedStart - end >= 0) break;
+			var wait = intendedStart - System.nanoTime();
+			if(wait > 0) LockSupport.parkNanos(wait);
+			// Waiting for a permit delays the requests after this one, which then count the delay.
+			inFlight.acquire();
+			var call = workload.next();
+			client.sendAsync(workload.requestFor(call), HttpResponse.BodyHandlers.ofString())
+				  .whenComplete((response, error) -> {
+					  latencies.record(call.kind, intendedStart, response, error);
+					  workload.completed(call, response);
+					  inFlight.release();
+				  });
+		}
+		inFlight.acquire(maxInFlight);
+	}
+}
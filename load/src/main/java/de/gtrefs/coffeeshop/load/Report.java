@@ -0,0 +1,65 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.io.*;
+import java.math.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import de.gtrefs.coffeeshop.load.Workload.*;
+import org.HdrHistogram.*;
+
+// Throughput and latency percentiles in milliseconds by kind of request, followed by
+// the full percentile distribution of each, which can be plotted with HdrHistogram's tools.
+public class Report {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+	private static final double MICROS_PER_MILLI = 1000.0;
+
+	private final String description;
+	private final Latencies latencies;
+
+	public Report(String description, Latencies latencies) {
+		this.description = description;
+		this.latencies = latencies;
+	}
+
+	public String writeTo(Path file) throws IOException {
+		var seconds = latencies.nanosMeasured() / (double) TimeUnit.SECONDS.toNanos(1);
+		var histograms = latencies.histograms();
+		var summary = new StringWriter();
+		var out = new PrintWriter(summary);
+		out.println(description);
+		long total = 0;
+		for (Map.Entry<Kind, Histogram> entry : histograms.entrySet()) {
+			var outcomes = latencies.outcomes(entry.getKey());
+			total += outcomes.total();
+			out.printf(Locale.ROOT, "%-6s %8.1f requests/s, %s%n", entry.getKey(), outcomes.total() / seconds, outcomes);
+			out.printf(Locale.ROOT, "       %s%n", percentiles(entry.getValue()));
+		}
+		out.printf(Locale.ROOT, "all    %8.1f requests/s%n", total / seconds);
+		out.flush();
+
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		try (var stream = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+			stream.print(summary);
+			for (Map.Entry<Kind, Histogram> entry : histograms.entrySet()) {
+				stream.printf("%n%s latency in milliseconds%n", entry.getKey());
+				if(entry.getValue().getTotalCount() > 0){
+					entry.getValue().outputPercentileDistribution(stream, MICROS_PER_MILLI);
+				}
+			}
+		}
+		return summary.toString();
+	}
+
+	private static String percentiles(Histogram histogram) {
+		var line = new StringBuilder();
+		for (double percentile : PERCENTILES) {
+			var name = BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+			line.append(String.format(Locale.ROOT, "p%s %.2f ms, ", name, histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI));
+		}
+		return line.append(String.format(Locale.ROOT, "max %.2f ms", histogram.getMaxValue() / MICROS_PER_MILLI)).toString();
+	}
+}
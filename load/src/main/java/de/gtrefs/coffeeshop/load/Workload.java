@@ -0,0 +1,100 @@
+package de.gtrefs.coffeeshop.load;
+
+import java.net.*;
+import java.net.http.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import com.fasterxml.jackson.databind.*;
+import de.gtrefs.coffeeshop.*;
+import net.jqwik.api.*;
+
+// The mix of requests of the integration tests: mostly orders of flavors we offer, some of
+// flavors we don't and a few status checks. Requests are generated up front, so that
+// generating them is not part of the measurement.
+//
+// The generated order numbers are those of the properties, which rarely exist. Status
+// checks ask for orders which were placed during the run instead, once there are some.
+public class Workload {
+
+	private static final int REQUESTS = 10_000;
+	private static final int PLACED_ORDERS = 1024;
+
+	private final URI counter;
+	private final Duration timeout;
+	private final List<Call> calls;
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicLongArray placedOrders = new AtomicLongArray(PLACED_ORDERS);
+	private final AtomicLong placed = new AtomicLong();
+	private final ObjectWriter orderWriter = new ObjectMapper().writerFor(Order.class);
+	private final ObjectReader statusReader = new ObjectMapper().reader();
+
+	public Workload(URI counter, Duration timeout) {
+		this.counter = counter;
+		this.timeout = timeout;
+		Arbitrary<Call> mix = Arbitraries.frequencyOf(
+				Tuple.of(15, Orders.withExistingFlavor().map(this::order)),
+				Tuple.of(5, Orders.withRandomFlavor().map(this::order)),
+				Tuple.of(1, Orders.orderNumbers().map(orderNumber -> new Call(Kind.STATUS, orderNumber, null))));
+		this.calls = mix.sampleStream().limit(REQUESTS).collect(Collectors.toList());
+	}
+
+	private Call order(Order order) {
+		try {
+			return new Call(Kind.ORDER, 0, orderWriter.writeValueAsString(order));
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot write order " + order, e);
+		}
+	}
+
+	public Call next() {
+		return calls.get((int) (next.getAndIncrement() % calls.size()));
+	}
+
+	public HttpRequest requestFor(Call call) {
+		var request = HttpRequest.newBuilder().timeout(timeout);
+		if(call.kind == Kind.ORDER){
+			return request.uri(counter.resolve("order"))
+						  .header("Content-Type", "application/json")
+						  .POST(HttpRequest.BodyPublishers.ofString(call.body))
+						  .build();
+		}
+		return request.uri(counter.resolve("order/" + orderNumberFor(call))).GET().build();
+	}
+
+	private long orderNumberFor(Call status) {
+		var placed = this.placed.get();
+		if(placed == 0) return status.orderNumber;
+		var recent = Math.min(placed, PLACED_ORDERS);
+		return placedOrders.get((int) ((placed - 1 - ThreadLocalRandom.current().nextLong(recent)) % PLACED_ORDERS));
+	}
+
+	public void completed(Call call, HttpResponse<String> response) {
+		if(call.kind != Kind.ORDER || response == null || response.statusCode() != 200) return;
+		try {
+			var orderNumber = statusReader.readTree(response.body()).path("order").path("orderNumber");
+			if(orderNumber.isIntegralNumber()){
+				placedOrders.set((int) (placed.getAndIncrement() % PLACED_ORDERS), orderNumber.asLong());
+			}
+		} catch (Exception e) {
+			// Not an order status, nothing to check later
+		}
+	}
+
+	public enum Kind { ORDER, STATUS }
+
+	public static class Call {
+		public final Kind kind;
+		private final long orderNumber;
+		private final String body;
+
+		private Call(Kind kind, long orderNumber, String body) {
+			this.kind = kind;
+			this.orderNumber = orderNumber;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Counter;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+// Limits the requests a web client has in flight. The limit adapts to the service
+// behind it: it grows by one while requests come back in time and the limit is
+// actually used, and shrinks by the backoff ratio as soon as a request fails or
+// is too slow (additive increase, multiplicative decrease).
+//
+// Requests beyond the limit fail right away with ConcurrencyLimitExceeded
+// instead of queueing up in front of a service which already struggles.
+public class AdaptiveConcurrencyLimit implements ExchangeFilterFunction {
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final long slowResponse;
+	private final AtomicInteger limit;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Counter rejected;
+
+	public AdaptiveConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+									Duration slowResponse, MeterRegistry meterRegistry) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.slowResponse = slowResponse.toNanos();
+		this.limit = new AtomicInteger(initialLimit);
+		this.rejected = Counter.builder(name + ".concurrency.rejected")
+							   .description("Requests rejected because too many were in flight")
+							   .register(meterRegistry);
+		Gauge.builder(name + ".concurrency.limit", limit, AtomicInteger::get).register(meterRegistry);
+		Gauge.builder(name + ".concurrency.in-flight", inFlight, AtomicInteger::get).register(meterRegistry);
+	}
+
+	@Override
+	public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+		return Mono.defer(() -> {
+			var sent = acquire();
+			if(sent < 0){
+				rejected.increment();
+				return Mono.error(new ConcurrencyLimitExceeded(request.url().getHost(), limit.get()));
+			}
+			var started = System.nanoTime();
+			return next.exchange(request)
+					   .doOnSuccess(response -> {
+						   var dropped = response == null || response.statusCode().is5xxServerError();
+						   adapt(sent, System.nanoTime() - started, dropped);
+					   })
+					   .doOnError(e -> adapt(sent, System.nanoTime() - started, true))
+					   // Callers give up on slow requests, e.g. on a timeout. Hedges which lost are cancelled as well, but they are not slow.
+					   .doOnCancel(() -> {
+						   var latency = System.nanoTime() - started;
+						   if(latency > slowResponse) adapt(sent, latency, true);
+					   })
+					   .doFinally(signal -> inFlight.decrementAndGet());
+		});
+	}
+
+	// Returns the requests in flight including this one, or -1 if the limit is reached.
+	private int acquire() {
+		int current;
+		do {
+			current = inFlight.get();
+			if(current >= limit.get()) return -1;
+		} while (!inFlight.compareAndSet(current, current + 1));
+		return current + 1;
+	}
+
+	private void adapt(int inFlightWhenSent, long latency, boolean dropped) {
+		if(dropped || latency > slowResponse){
+			limit.updateAndGet(current -> Math.max(minLimit, (int) (current * backoffRatio)));
+		} else if(inFlightWhenSent * 2 >= limit.get()){
+			// Only grow a limit which is used, otherwise it drifts up while traffic is low.
+			limit.updateAndGet(current -> Math.min(maxLimit, current + 1));
+		}
+	}
+
+	public static class ConcurrencyLimitExceeded extends CallNotPermitted {
+		public ConcurrencyLimitExceeded(String host, int limit) {
+			super(String.format("More than %d requests to %s in flight.", limit, host));
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.slf4j.*;
+import org.springframework.core.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.*;
+import reactor.core.publisher.*;
+
+// We only offer what the barista brews. Flavors are changed at the coffee service with
+// PUT /api/admin/flavors, the catalog of the order service asks for them once per interval
+// and follows. Until the barista answered, the configured flavors are offered.
+public class BaristaFlavors {
+
+	private static final Logger logger = LoggerFactory.getLogger(BaristaFlavors.class);
+
+	private static final ParameterizedTypeReference<List<String>> FLAVORS = new ParameterizedTypeReference<>() {};
+
+	private final WebClient barista;
+	private final FlavorCatalog flavors;
+	private final Duration interval;
+
+	private Disposable refreshes;
+
+	public BaristaFlavors(WebClient barista, FlavorCatalog flavors, Duration interval) {
+		this.barista = barista;
+		this.flavors = flavors;
+		this.interval = interval;
+	}
+
+	public void start() {
+		refreshes = Flux.interval(Duration.ZERO, interval)
+						.onBackpressureDrop()
+						.concatMap(tick -> refresh(), 1)
+						.subscribe();
+	}
+
+	Mono<Void> refresh() {
+		return barista.get()
+					  .uri(uriBuilder -> uriBuilder.path("admin/flavors").build())
+					  .retrieve()
+					  .bodyToMono(FLAVORS)
+					  .doOnNext(offered -> {
+						  if(!offered.equals(flavors.flavors())){
+							  flavors.offer(offered);
+							  logger.info("Now offering {} like the barista.", flavors.flavors());
+						  }
+					  })
+					  .then()
+					  .onErrorResume(e -> {
+						  logger.warn("Could not ask the barista for its flavors, still offering {}: {}", flavors.flavors(), e.getMessage());
+						  return Mono.empty();
+					  });
+	}
+
+	public void stop() {
+		if(refreshes != null){
+			refreshes.dispose();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.github.benmanes.caffeine.cache.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+import io.micrometer.core.instrument.binder.cache.*;
+
+// Keeps recent orders in memory. Orders which are still in progress are retained
+// much longer than settled ones (payed or not possible), so that customers can
+// still look up their order while the heap stays flat. Whatever drops out of memory
+// is handed to the repository behind, which also answers lookups we cannot answer.
+public class BoundedOrderRepository implements OrderRepository, MeterBinder {
+
+	private final Cache<Long, OrderStatus> orders;
+	private final OrderRepository evictedOrders;
+
+	public BoundedOrderRepository(long maximumSize, Duration pendingRetention, Duration settledRetention, OrderRepository evictedOrders) {
+		this(maximumSize, pendingRetention, settledRetention, evictedOrders, Ticker.systemTicker(), ForkJoinPool.commonPool());
+	}
+
+	// Tests bring their own clock and evict on the calling thread
+	BoundedOrderRepository(long maximumSize, Duration pendingRetention, Duration settledRetention, OrderRepository evictedOrders,
+						   Ticker ticker, Executor executor) {
+		this.evictedOrders = evictedOrders;
+		this.orders = Caffeine.newBuilder()
+							  .maximumSize(maximumSize)
+							  .expireAfter(new RetainPendingOrdersLonger(pendingRetention, settledRetention))
+							  .scheduler(Scheduler.systemScheduler())
+							  .ticker(ticker)
+							  .executor(executor)
+							  .removalListener(this::keepEvictedOrder)
+							  .recordStats()
+							  .build();
+	}
+
+	@Override
+	public OrderStatus save(OrderStatus status) {
+		orders.put(status.order().getOrderNumber(), status);
+		return status;
+	}
+
+	@Override
+	public Optional<OrderStatus> findByOrderNumber(long orderNumber) {
+		var status = orders.getIfPresent(orderNumber);
+		return status != null ? Optional.of(status) : evictedOrders.findByOrderNumber(orderNumber);
+	}
+
+	void cleanUp() {
+		orders.cleanUp();
+	}
+
+	private void keepEvictedOrder(Long orderNumber, OrderStatus status, RemovalCause cause) {
+		if(status != null && cause.wasEvicted()){
+			evictedOrders.save(status);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, orders, "orders");
+	}
+
+	private static boolean settled(OrderStatus status) {
+		return status.coffeePayed() || status.orderNotPossible();
+	}
+
+	private static class RetainPendingOrdersLonger implements Expiry<Long, OrderStatus> {
+		private final long pendingRetention;
+		private final long settledRetention;
+
+		private RetainPendingOrdersLonger(Duration pendingRetention, Duration settledRetention) {
+			this.pendingRetention = pendingRetention.toNanos();
+			this.settledRetention = settledRetention.toNanos();
+		}
+
+		@Override
+		public long expireAfterCreate(Long orderNumber, OrderStatus status, long currentTime) {
+			return settled(status) ? settledRetention : pendingRetention;
+		}
+
+		@Override
+		public long expireAfterUpdate(Long orderNumber, OrderStatus status, long currentTime, long currentDuration) {
+			return settled(status) ? settledRetention : pendingRetention;
+		}
+
+		@Override
+		public long expireAfterRead(Long orderNumber, OrderStatus status, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package de.gtrefs.coffeeshop.order;
+
+// A request which was not sent at all, to protect a service which is down or
+// overloaded. Callers fall back right away, nothing has happened on the other side.
+public class CallNotPermitted extends RuntimeException {
+
+	public CallNotPermitted(String message) {
+		super(message, null, false, false);
+	}
+}
@@ -0,0 +1,78 @@
+package de.gtrefs.coffeeshop.order;
+
+import javax.crypto.*;
+import javax.crypto.spec.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+
+import org.slf4j.*;
+
+// Card numbers of cash payments must not be kept in plain text, so the outbox only writes
+// them encrypted with AES-GCM. Each number gets an IV of its own, which is written in front
+// of it. The key is configured and never written anywhere. Without one, a random key is
+// used, and cash payments left in the outbox cannot be charged after a restart.
+public class CardNumberCipher {
+
+	private static final Logger logger = LoggerFactory.getLogger(CardNumberCipher.class);
+
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final int IV_SIZE = 12;
+	private static final int TAG_BITS = 128;
+
+	private final SecretKey key;
+	private final SecureRandom random = new SecureRandom();
+
+	private CardNumberCipher(SecretKey key) {
+		this.key = key;
+	}
+
+	// A Base64 encoded AES key of 16, 24 or 32 bytes
+	public static CardNumberCipher of(String key) {
+		if(key == null || key.isBlank()){
+			logger.warn("No key for card numbers is configured. Cash payments which are not reconciled before " +
+						"a restart cannot be charged after it.");
+			return withRandomKey();
+		}
+		return new CardNumberCipher(new SecretKeySpec(Base64.getDecoder().decode(key), "AES"));
+	}
+
+	public static CardNumberCipher withRandomKey() {
+		try {
+			var generator = KeyGenerator.getInstance("AES");
+			generator.init(256);
+			return new CardNumberCipher(generator.generateKey());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public byte[] encrypt(String cardNumber) {
+		var iv = new byte[IV_SIZE];
+		random.nextBytes(iv);
+		try {
+			var cipher = Cipher.getInstance(TRANSFORMATION);
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+			var encrypted = cipher.doFinal(cardNumber.getBytes(StandardCharsets.UTF_8));
+			return ByteBuffer.allocate(IV_SIZE + encrypted.length).put(iv).put(encrypted).array();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not encrypt a card number.", e);
+		}
+	}
+
+	// Empty if the number was encrypted with another key or not at all
+	public Optional<String> decrypt(byte[] encrypted) {
+		if(encrypted.length <= IV_SIZE) return Optional.empty();
+		try {
+			var cipher = Cipher.getInstance(TRANSFORMATION);
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, encrypted, 0, IV_SIZE));
+			var cardNumber = cipher.doFinal(encrypted, IV_SIZE, encrypted.length - IV_SIZE);
+			return Optional.of(new String(cardNumber, StandardCharsets.UTF_8));
+		} catch (AEADBadTagException e) {
+			return Optional.empty();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not decrypt a card number.", e);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+// Stops sending requests to a service once too many of the recent ones failed or were
+// slow. The outcomes of the last window-size requests are kept in a ring. Each request
+// claims the next slot and swaps its outcome in, so that counting never takes a lock.
+//
+// An open circuit rejects requests with CircuitOpen until the wait duration has passed.
+// Then a few probes are let through (half open). If they are fine, the circuit closes
+// and the ring starts over, otherwise it opens again. All transitions are CAS on the state.
+//
+// Each time the circuit is half open, the thread which made it so starts a new round
+// of probes. Probes of an earlier round which answer late do not count. A probe which
+// is cancelled before it was slow tells nothing about the service, so its permit is
+// handed to the next request.
+//
+// Filters after the breaker may refuse a request themselves, like the concurrency limit
+// does with CallNotPermitted. Nothing was sent then, so it does not count as a failure
+// of the service, and a probe hands its permit on as well.
+public class CircuitBreaker implements ExchangeFilterFunction {
+
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private static final State[] states = State.values();
+
+	private static final int EMPTY = 0;
+	private static final int SUCCESS = 1;
+	private static final int FAILURE = 2;
+	private static final int SLOW = 3;
+
+	private final String name;
+	private final int minimumCalls;
+	private final double failureRateThreshold;
+	private final double slowCallRateThreshold;
+	private final long slowCall;
+	private final long waitInOpenState;
+	private final int probes;
+	private final Consumer<StateChanged> listener;
+
+	private final AtomicIntegerArray outcomes;
+	private final AtomicLong nextSlot = new AtomicLong();
+	private final AtomicInteger recorded = new AtomicInteger();
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicInteger slowCalls = new AtomicInteger();
+
+	private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+	private volatile long openedAt;
+	private final AtomicReference<Probes> probing = new AtomicReference<>(new Probes(0));
+
+	private final Counter notPermitted;
+	private final MeterRegistry meterRegistry;
+
+	public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+						  double slowCallRateThreshold, Duration slowCall, Duration waitInOpenState, int probes,
+						  Consumer<StateChanged> listener, MeterRegistry meterRegistry) {
+		this.name = name;
+		this.outcomes = new AtomicIntegerArray(windowSize);
+		this.minimumCalls = minimumCalls;
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCall = slowCall.toNanos();
+		this.waitInOpenState = waitInOpenState.toNanos();
+		this.probes = probes;
+		this.listener = listener;
+		this.meterRegistry = meterRegistry;
+		this.notPermitted = Counter.builder(name + ".circuit.not-permitted")
+								   .description("Requests rejected because the circuit was open")
+								   .register(meterRegistry);
+		Gauge.builder(name + ".circuit.state", state, AtomicInteger::get)
+			 .description("0 closed, 1 open, 2 half open")
+			 .register(meterRegistry);
+	}
+
+	@Override
+	public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+		return Mono.defer(() -> {
+			var current = state();
+			if(current == State.OPEN && System.nanoTime() - openedAt >= waitInOpenState){
+				if(transition(State.OPEN, State.HALF_OPEN)) probing.set(new Probes(probes));
+				current = state();
+			}
+			if(current == State.CLOSED){
+				return exchange(request, next, this::record, () -> {});
+			}
+			var round = probing.get();
+			if(current == State.HALF_OPEN && round.permit()){
+				return exchange(request, next, outcome -> probe(round, outcome), round::giveBack);
+			}
+			notPermitted.increment();
+			return Mono.error(new CircuitOpen(name));
+		});
+	}
+
+	private Mono<ClientResponse> exchange(ClientRequest request, ExchangeFunction next, IntConsumer record, Runnable toldNothing) {
+		var started = System.nanoTime();
+		return next.exchange(request)
+				   .doOnSuccess(response -> {
+					   var failed = response == null || response.statusCode().is5xxServerError();
+					   record.accept(failed ? FAILURE : outcome(System.nanoTime() - started));
+				   })
+				   .doOnError(e -> {
+					   if(e instanceof CallNotPermitted) toldNothing.run();
+					   else record.accept(FAILURE);
+				   })
+				   .doOnCancel(() -> {
+					   // Given up by the caller. Only slow ones count, lost hedges do not.
+					   if(System.nanoTime() - started > slowCall) record.accept(SLOW);
+					   else toldNothing.run();
+				   });
+	}
+
+	public State state() {
+		return states[state.get()];
+	}
+
+	private int outcome(long latency) {
+		return latency > slowCall ? SLOW : SUCCESS;
+	}
+
+	private void record(int outcome) {
+		var slot = (int) (nextSlot.getAndIncrement() % outcomes.length());
+		var previous = outcomes.getAndSet(slot, outcome);
+		count(previous, -1);
+		count(outcome, 1);
+		int calls = recorded.get();
+		if(calls < minimumCalls || state() != State.CLOSED) return;
+		var failureRate = (double) failures.get() / calls;
+		var slowCallRate = (double) slowCalls.get() / calls;
+		if(failureRate >= failureRateThreshold || slowCallRate >= slowCallRateThreshold){
+			open(State.CLOSED);
+		}
+	}
+
+	private void count(int outcome, int delta) {
+		if(outcome == EMPTY) return;
+		recorded.addAndGet(delta);
+		if(outcome == FAILURE) failures.addAndGet(delta);
+		if(outcome == SLOW) slowCalls.addAndGet(delta);
+	}
+
+	private void probe(Probes round, int outcome) {
+		if(outcome != SUCCESS) round.failed.incrementAndGet();
+		if(round.done.incrementAndGet() < probes || probing.get() != round) return;
+		var failureRate = (double) round.failed.get() / probes;
+		if(failureRate >= Math.min(failureRateThreshold, slowCallRateThreshold)){
+			open(State.HALF_OPEN);
+		} else if(transition(State.HALF_OPEN, State.CLOSED)){
+			for (int slot = 0; slot < outcomes.length(); slot++) {
+				count(outcomes.getAndSet(slot, EMPTY), -1);
+			}
+		}
+	}
+
+	private void open(State from) {
+		openedAt = System.nanoTime();
+		transition(from, State.OPEN);
+	}
+
+	private boolean transition(State from, State to) {
+		if(!state.compareAndSet(from.ordinal(), to.ordinal())) return false;
+		logger.warn("Circuit to {} changed from {} to {}.", name, from, to);
+		meterRegistry.counter(name + ".circuit.transitions", "from", from.name(), "to", to.name()).increment();
+		listener.accept(new StateChanged(name, from, to));
+		return true;
+	}
+
+	private static class Probes {
+		private final AtomicInteger permits;
+		private final AtomicInteger done = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+
+		private Probes(int permits) {
+			this.permits = new AtomicInteger(permits);
+		}
+
+		private boolean permit() {
+			return permits.getAndDecrement() > 0;
+		}
+
+		private void giveBack() {
+			permits.incrementAndGet();
+		}
+	}
+
+	public static class CircuitOpen extends CallNotPermitted {
+		public CircuitOpen(String name) {
+			super(String.format("Circuit to %s is open.", name));
+		}
+	}
+
+	public static class StateChanged {
+		public final String name;
+		public final State from;
+		public final State to;
+
+		public StateChanged(String name, State from, State to) {
+			this.name = name;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public String toString() {
+			return "StateChanged{" +
+				   "name='" + name + '\'' +
+				   ", from=" + from +
+				   ", to=" + to +
+				   '}';
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.common.Span.*;
+import de.gtrefs.coffeeshop.order.OrderService.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import io.micrometer.core.instrument.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.*;
+import reactor.core.publisher.*;
+
+import static reactor.core.publisher.Sinks.EmitResult.*;
+
+// Collects cup orders which arrive at about the same time and asks the barista
+// to brew them with a single request. A batch is sent when it is full or when
+// the window has passed, whatever comes first. Cups are handed to whoever ordered
+// them by their id, a cup the barista did not answer with fails.
+//
+// A batch carries the cups of several traces, but a request can only be part of one.
+// Within a trace, a cup waits for its batch in a span of its own. The request goes out
+// within the span of the first sampled cup, the spans of the other cups name its trace.
+public class CupOrderCoalescer {
+
+	private final WebClient barista;
+	private final int maxBatchSize;
+	private final Sinks.Many<PendingCup> pendingCups = Sinks.many().unicast().onBackpressureBuffer();
+	private final Disposable batches;
+	private final DistributionSummary batchSize;
+	private final DistributionSummary batchFill;
+
+	public CupOrderCoalescer(WebClient barista, int maxBatchSize, Duration window, MeterRegistry meterRegistry) {
+		this.barista = barista;
+		this.maxBatchSize = maxBatchSize;
+		this.batchSize = DistributionSummary.builder("barista.coalescer.batch.size")
+											.description("Cups brewed with a single request")
+											.register(meterRegistry);
+		this.batchFill = DistributionSummary.builder("barista.coalescer.batch.fill")
+											.description("Ratio of batch size to maximum batch size")
+											.register(meterRegistry);
+		this.batches = pendingCups.asFlux()
+								  .bufferTimeout(maxBatchSize, window)
+								  .flatMap(this::brew)
+								  .subscribe();
+	}
+
+	public Mono<OrderedCup> order(CupOrder cupOrder) {
+		return Mono.deferContextual(context -> {
+			var span = context.<Span>getOrEmpty(Span.class).map(parent -> parent.child("coalesce", Kind.INTERNAL));
+			var pendingCup = new PendingCup(cupOrder, span.orElse(null));
+			pendingCups.emitNext(pendingCup, (signal, result) -> result == FAIL_NON_SERIALIZED);
+			return pendingCup.cup.asMono();
+		});
+	}
+
+	private Mono<Void> brew(List<PendingCup> batch) {
+		batchSize.record(batch.size());
+		batchFill.record((double) batch.size() / maxBatchSize);
+		var cupOrders = batch.stream().map(pendingCup -> pendingCup.cupOrder).collect(Collectors.toList());
+		var traced = batch.stream().filter(pendingCup -> pendingCup.span != null)
+						  .max(Comparator.comparing(pendingCup -> pendingCup.span.sampled()))
+						  .map(pendingCup -> pendingCup.span);
+		traced.ifPresent(request -> batch.forEach(pendingCup -> pendingCup.inBatchOf(request, batch.size())));
+		return barista.post()
+					  .uri(uriBuilder -> uriBuilder.path("coffees/batch").build())
+					  .contentType(MediaType.APPLICATION_JSON)
+					  .bodyValue(cupOrders)
+					  .retrieve()
+					  .bodyToFlux(OrderedCup.class)
+					  .collectMap(OrderedCup::getId)
+					  .doOnNext(cups -> batch.forEach(pendingCup -> pendingCup.brewed(cups.get(pendingCup.cupOrder.id))))
+					  .doOnError(e -> batch.forEach(pendingCup -> pendingCup.failed(e)))
+					  .onErrorResume(e -> Mono.empty())
+					  .then()
+					  .contextWrite(context -> traced.map(span -> context.put(Span.class, span)).orElse(context));
+	}
+
+	public void close() {
+		pendingCups.tryEmitComplete();
+		batches.dispose();
+	}
+
+	private static class PendingCup {
+		private final CupOrder cupOrder;
+		private final Sinks.One<OrderedCup> cup = Sinks.one();
+		// Only within a trace
+		private final Span span;
+
+		private PendingCup(CupOrder cupOrder, Span span) {
+			this.cupOrder = cupOrder;
+			this.span = span;
+		}
+
+		private void inBatchOf(Span request, int batchSize) {
+			if(span == null) return;
+			span.tag("batch.size", batchSize);
+			if(span != request) span.tag("batch.trace_id", request.traceId());
+		}
+
+		private void brewed(OrderedCup brewed) {
+			if(brewed == null){
+				failed(new IllegalStateException("The barista did not brew cup " + cupOrder.id + "."));
+				return;
+			}
+			cup.tryEmitValue(brewed);
+			if(span != null) span.end();
+		}
+
+		private void failed(Throwable error) {
+			cup.tryEmitError(error);
+			if(span != null) span.tag("error", error.getClass().getSimpleName()).end();
+		}
+	}
+}
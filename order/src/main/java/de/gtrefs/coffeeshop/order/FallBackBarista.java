@@ -1,26 +1,29 @@
 package de.gtrefs.coffeeshop.order;
 
-import java.util.concurrent.atomic.*;
-import java.util.regex.*;
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.ReconciliationOutbox.*;
 
 import static de.gtrefs.coffeeshop.order.OrderStatus.OrderNotPossible.Reason.*;
 import static java.util.Collections.*;
 
 public class FallBackBarista {
 
-	private AtomicLong ids = new AtomicLong(0);
+	private final ReconciliationOutbox outbox;
+	private final SnowflakeIds ids;
+	private final FlavorCatalog flavors;
 
-	private Pattern pattern;
-
-	public FallBackBarista(){
-		pattern = Pattern.compile("melange|black|espresso|ristretto|cappuccino");
+	public FallBackBarista(ReconciliationOutbox outbox, SnowflakeIds ids, FlavorCatalog flavors){
+		this.outbox = outbox;
+		this.ids = ids;
+		this.flavors = flavors;
 	}
 
 	public OrderStatus makeCoffee(Order order){
-		if(pattern.matcher(order.getFlavor().toLowerCase()).matches()){
+		if(flavors.offers(order.getFlavor())){
 			var cup = new OrderStatus.OrderedCup();
-			cup.setId(ids.incrementAndGet());
+			cup.setId(ids.next());
 			cup.setFlavor(order.getFlavor());
+			outbox.append(Entry.cup(order.getOrderNumber(), cup.getId(), cup.getFlavor()));
 			return new OrderStatus.CoffeeOrdered(order, cup);
 		}
 		var error = new ErrorResponse("BAD_REQUEST", singletonList("We don't offer this flavor. " +
@@ -1,18 +1,30 @@
 package de.gtrefs.coffeeshop.order;
 
-import java.util.concurrent.atomic.*;
+import java.math.*;
 
+import de.gtrefs.coffeeshop.common.*;
 import de.gtrefs.coffeeshop.order.OrderService.*;
 import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import de.gtrefs.coffeeshop.order.ReconciliationOutbox.*;
 
 public class FallbackCash {
 
-	AtomicLong receiptCounter = new AtomicLong(0);
+	private final ReconciliationOutbox outbox;
+	private final SnowflakeIds ids;
+
+	public FallbackCash(ReconciliationOutbox outbox, SnowflakeIds ids) {
+		this.outbox = outbox;
+		this.ids = ids;
+	}
 
 	public CoffeePayed payByCash(CoffeeOrdered ordered, PaymentCharge paymentCharge) {
+		var order = ordered.order;
 		var receipt = new OrderStatus.Receipt();
-		receipt.setId(receiptCounter.incrementAndGet());
+		receipt.setId(ids.next());
 		receipt.setBalance(paymentCharge.price);
+		var cents = paymentCharge.price.movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+		outbox.append(Entry.charge(order.getOrderNumber(), receipt.getId(), cents, paymentCharge.priceVersion,
+								  paymentCharge.creditCardNumber));
 		return new CoffeePayed(receipt, ordered.cup, ordered.order);
 	}
 }
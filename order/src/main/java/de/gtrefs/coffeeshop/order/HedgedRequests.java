@@ -0,0 +1,114 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.*;
+import reactor.core.publisher.*;
+import reactor.util.context.*;
+
+// Sends a second request if the first one takes longer than the given percentile
+// of recent latencies, and takes whichever answers first. The other one is cancelled.
+// The second request goes to another endpoint than the first, see LoadBalancedEndpoints.
+//
+// Requests which are cancelled count with the time they took until then. Otherwise
+// only the faster requests would count, and hedges would be sent sooner and sooner.
+//
+// Every request earns a fraction of a hedge and every hedge spends a whole one,
+// so hedges never exceed the budget in percent of traffic, even if the other side
+// slows down as a whole. Then hedging would only add load.
+public class HedgedRequests {
+
+	private static final long HEDGE = 100;
+	private static final long MAX_SAVED_HEDGES = 10 * HEDGE;
+	private static final long DELAY_REFRESH = TimeUnit.SECONDS.toNanos(1);
+	private static final long MIN_SAMPLES = 100;
+
+	private final double percentile;
+	private final long minDelay;
+	private final long budgetPercent;
+	private final Timer latency;
+	private final Counter fired;
+	private final Counter won;
+	private final AtomicLong budget = new AtomicLong();
+
+	private volatile long delay;
+	private volatile long delayRefreshedAt = System.nanoTime();
+
+	public HedgedRequests(String name, double percentile, Duration initialDelay, Duration minDelay, int budgetPercent,
+						  MeterRegistry meterRegistry) {
+		this.percentile = percentile;
+		this.delay = initialDelay.toNanos();
+		this.minDelay = minDelay.toNanos();
+		this.budgetPercent = budgetPercent;
+		this.latency = Timer.builder(name + ".latency")
+							.description("Latency of requests which were answered or cancelled")
+							.publishPercentiles(percentile)
+							.distributionStatisticExpiry(Duration.ofMinutes(1))
+							.register(meterRegistry);
+		this.fired = Counter.builder(name + ".hedges.fired")
+							.description("Second requests sent because the first one was slow")
+							.register(meterRegistry);
+		this.won = Counter.builder(name + ".hedges.won")
+						  .description("Second requests which answered before the first one")
+						  .register(meterRegistry);
+	}
+
+	public <T> Mono<T> send(Supplier<Mono<T>> request) {
+		return Mono.defer(() -> {
+			budget.updateAndGet(saved -> Math.min(MAX_SAVED_HEDGES, saved + budgetPercent));
+			var firstDone = Sinks.<Boolean>one();
+			var firstFailure = new AtomicReference<Throwable>();
+			var triedEndpoints = new LoadBalancedEndpoints.TriedEndpoints();
+			var first = timed(request.get()).doOnError(firstFailure::set)
+											.doFinally(signal -> firstDone.tryEmitValue(true));
+			var second = Mono.delay(Duration.ofNanos(delay()))
+							 .takeUntilOther(firstDone.asMono())
+							 .filter(tick -> spendHedge())
+							 .flatMap(tick -> timed(request.get()).doOnSubscribe(s -> fired.increment())
+																	 .doOnNext(answer -> won.increment()));
+			// Neither request answered. Report why the first one failed, not that there is no answer.
+			return Mono.firstWithValue(first, second)
+					   .onErrorMap(NoSuchElementException.class, noAnswer -> Optional.ofNullable(firstFailure.get()).orElse(noAnswer))
+					   .contextWrite(Context.of(LoadBalancedEndpoints.TriedEndpoints.class, triedEndpoints));
+		});
+	}
+
+	private <T> Mono<T> timed(Mono<T> request) {
+		return Mono.defer(() -> {
+			var started = System.nanoTime();
+			return request.doOnSuccess(answer -> latency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS))
+						  .doOnCancel(() -> latency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+		});
+	}
+
+	private boolean spendHedge() {
+		long saved;
+		do {
+			saved = budget.get();
+			if(saved < HEDGE) return false;
+		} while (!budget.compareAndSet(saved, saved - HEDGE));
+		return true;
+	}
+
+	// Taking a snapshot walks the whole histogram, so the delay is only refreshed once in a while.
+	private long delay() {
+		var now = System.nanoTime();
+		if(now - delayRefreshedAt < DELAY_REFRESH) return delay;
+		delayRefreshedAt = now;
+		var snapshot = latency.takeSnapshot();
+		if(snapshot.count() < MIN_SAMPLES) return delay;
+		for (ValueAtPercentile value : snapshot.percentileValues()) {
+			if(value.percentile() == percentile){
+				delay = Math.max(minDelay, (long) value.value(TimeUnit.NANOSECONDS));
+			}
+		}
+		return delay;
+	}
+}
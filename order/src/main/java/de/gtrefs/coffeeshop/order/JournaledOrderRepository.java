@@ -0,0 +1,26 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.util.*;
+
+// Appends every status to the journal before storing it in the given repository.
+public class JournaledOrderRepository implements OrderRepository {
+
+	private final OrderJournal journal;
+	private final OrderRepository orders;
+
+	public JournaledOrderRepository(OrderJournal journal, OrderRepository orders) {
+		this.journal = journal;
+		this.orders = orders;
+	}
+
+	@Override
+	public OrderStatus save(OrderStatus status) {
+		journal.append(status);
+		return orders.save(status);
+	}
+
+	@Override
+	public Optional<OrderStatus> findByOrderNumber(long orderNumber) {
+		return orders.findByOrderNumber(orderNumber);
+	}
+}
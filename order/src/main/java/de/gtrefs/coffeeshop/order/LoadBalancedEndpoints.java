@@ -0,0 +1,161 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.net.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.*;
+import org.springframework.web.reactive.function.client.*;
+import org.springframework.web.util.*;
+import reactor.core.publisher.*;
+
+// Spreads the requests of a web client over several instances of a service. Of two
+// randomly picked endpoints, the one with fewer outstanding requests gets the request.
+//
+// Endpoints which fail or answer much slower than the fastest one several times in a
+// row are ejected for a while, longer each time it happens again. At most half of the
+// endpoints are ejected at once. If all else fails, ejected endpoints are used anyway.
+//
+// A request which is sent again, e.g. a hedge, goes to another endpoint than before
+// if there is one. Such requests share their TriedEndpoints in the Reactor context.
+public class LoadBalancedEndpoints implements ExchangeFilterFunction {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoadBalancedEndpoints.class);
+
+	private static final double LATENCY_WEIGHT = 0.2;
+	private static final int MAX_EJECTION_MULTIPLIER = 8;
+
+	private final List<Endpoint> endpoints;
+	private final int maxConsecutiveFailures;
+	private final long ejectionTime;
+	private final double latencyFactor;
+
+	public LoadBalancedEndpoints(String name, List<String> urls, int maxConsecutiveFailures, Duration ejectionTime,
+								 double latencyFactor, MeterRegistry meterRegistry) {
+		this.endpoints = urls.stream()
+							 .map(String::trim)
+							 .map(url -> new Endpoint(name, URI.create(url), meterRegistry))
+							 .collect(Collectors.toUnmodifiableList());
+		this.maxConsecutiveFailures = maxConsecutiveFailures;
+		this.ejectionTime = ejectionTime.toNanos();
+		this.latencyFactor = latencyFactor;
+	}
+
+	@Override
+	public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+		return Mono.deferContextual(context -> {
+			var tried = context.<TriedEndpoints>getOrEmpty(TriedEndpoints.class);
+			var endpoint = choose(tried.map(endpoints -> endpoints.uris).orElse(Set.of()));
+			tried.ifPresent(endpoints -> endpoints.uris.add(endpoint.uri));
+			var url = UriComponentsBuilder.fromUri(request.url())
+										  .scheme(endpoint.uri.getScheme())
+										  .host(endpoint.uri.getHost())
+										  .port(endpoint.uri.getPort())
+										  .build(true)
+										  .toUri();
+			var started = System.nanoTime();
+			endpoint.outstanding.incrementAndGet();
+			return next.exchange(ClientRequest.from(request).url(url).build())
+					   .doOnSuccess(response -> finished(endpoint, System.nanoTime() - started,
+														 response == null || response.statusCode().is5xxServerError()))
+					   .doOnError(e -> finished(endpoint, System.nanoTime() - started, true))
+					   .doFinally(signal -> endpoint.outstanding.decrementAndGet());
+		});
+	}
+
+	private Endpoint choose(Set<URI> tried) {
+		var now = System.nanoTime();
+		var first = pick(now, tried);
+		var second = pick(now, tried);
+		return first.outstanding.get() <= second.outstanding.get() ? first : second;
+	}
+
+	// An endpoint which was tried already is only picked again if all others are ejected
+	private Endpoint pick(long now, Set<URI> tried) {
+		var start = ThreadLocalRandom.current().nextInt(endpoints.size());
+		for (int i = 0; i < endpoints.size(); i++) {
+			var endpoint = endpoints.get((start + i) % endpoints.size());
+			if(!endpoint.ejected(now) && !tried.contains(endpoint.uri)) return endpoint;
+		}
+		return tried.isEmpty() ? endpoints.get(start) : pick(now, Set.of());
+	}
+
+	private void finished(Endpoint endpoint, long latency, boolean failed) {
+		(failed ? endpoint.failures : endpoint.successes).record(latency, TimeUnit.NANOSECONDS);
+		if(failed || slow(endpoint, latency)){
+			if(endpoint.consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures){
+				eject(endpoint);
+			}
+		} else {
+			endpoint.consecutiveFailures.set(0);
+			endpoint.ejectionsInARow.set(0);
+			var average = endpoint.averageLatency;
+			endpoint.averageLatency = average == 0 ? latency : average + LATENCY_WEIGHT * (latency - average);
+		}
+	}
+
+	private boolean slow(Endpoint endpoint, long latency) {
+		double fastest = Double.MAX_VALUE;
+		for (Endpoint other : endpoints) {
+			if(other != endpoint && other.averageLatency > 0){
+				fastest = Math.min(fastest, other.averageLatency);
+			}
+		}
+		return latency > latencyFactor * fastest;
+	}
+
+	private void eject(Endpoint endpoint) {
+		var now = System.nanoTime();
+		if(endpoint.ejected(now)) return;
+		long ejected = endpoints.stream().filter(other -> other.ejected(now)).count();
+		if(ejected + 1 > endpoints.size() / 2) return;
+		var multiplier = Math.min(MAX_EJECTION_MULTIPLIER, endpoint.ejectionsInARow.incrementAndGet());
+		endpoint.ejectedUntil = now + ejectionTime * multiplier;
+		endpoint.consecutiveFailures.set(0);
+		endpoint.ejected.increment();
+		logger.warn("Ejected {} for {} ms after {} failed or slow requests in a row.", endpoint.uri,
+					TimeUnit.NANOSECONDS.toMillis(ejectionTime * multiplier), maxConsecutiveFailures);
+	}
+
+	public URI firstEndpoint() {
+		return endpoints.get(0).uri;
+	}
+
+	public static class TriedEndpoints {
+		private final Set<URI> uris = ConcurrentHashMap.newKeySet();
+	}
+
+	private static class Endpoint {
+		private final URI uri;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private final AtomicInteger ejectionsInARow = new AtomicInteger();
+		private final Timer successes;
+		private final Timer failures;
+		private final Counter ejected;
+		private volatile long ejectedUntil = System.nanoTime();
+		private volatile double averageLatency;
+
+		private Endpoint(String name, URI uri, MeterRegistry meterRegistry) {
+			this.uri = uri;
+			var tags = Tags.of("endpoint", uri.getAuthority());
+			this.successes = Timer.builder(name + ".endpoint.requests").tags(tags).tag("outcome", "success").register(meterRegistry);
+			this.failures = Timer.builder(name + ".endpoint.requests").tags(tags).tag("outcome", "failure").register(meterRegistry);
+			this.ejected = Counter.builder(name + ".endpoint.ejections").tags(tags).register(meterRegistry);
+			Gauge.builder(name + ".endpoint.outstanding", outstanding, AtomicInteger::get).tags(tags).register(meterRegistry);
+			Gauge.builder(name + ".endpoint.ejected", this, endpoint -> endpoint.ejected(System.nanoTime()) ? 1 : 0)
+				 .tags(tags)
+				 .register(meterRegistry);
+		}
+
+		private boolean ejected(long now) {
+			return now - ejectedUntil < 0;
+		}
+	}
+}
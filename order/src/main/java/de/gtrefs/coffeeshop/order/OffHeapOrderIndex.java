@@ -0,0 +1,133 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+
+import static de.gtrefs.coffeeshop.order.OrderStatusRecord.*;
+
+// Order statuses encoded as fixed-width records in a direct buffer, outside of the heap.
+// Slots are found by hashing the order number and probing a few neighbours. The index
+// never grows: if all neighbours are taken, the oldest order among them is overwritten.
+public class OffHeapOrderIndex implements OrderRepository, MeterBinder {
+
+	private static final int PROBES = 8;
+
+	private final FlavorCatalog flavors;
+	private final ByteBuffer records;
+	private final int mask;
+	private final StampedLock lock = new StampedLock();
+	private final AtomicLong overwritten = new AtomicLong();
+	private final AtomicLong stored = new AtomicLong();
+
+	public OffHeapOrderIndex(int capacity, FlavorCatalog flavors) {
+		this.flavors = flavors;
+		var slots = Integer.highestOneBit(Math.max(PROBES, capacity - 1) << 1);
+		this.records = ByteBuffer.allocateDirect(slots * SIZE);
+		this.mask = slots - 1;
+	}
+
+	@Override
+	public OrderStatus save(OrderStatus status) {
+		long orderNumber = status.order().getOrderNumber();
+		long stamp = lock.writeLock();
+		try {
+			write(records, claim(orderNumber), status, flavors);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return status;
+	}
+
+	// Copies an encoded record as it is, e.g. when replaying a journal.
+	public void restore(ByteBuffer source, int offset) {
+		long orderNumber = orderNumber(source, offset);
+		long stamp = lock.writeLock();
+		try {
+			int slot = claim(orderNumber);
+			for (int i = 0; i < SIZE; i += Long.BYTES) {
+				records.putLong(slot + i, source.getLong(offset + i));
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	private int claim(long orderNumber) {
+		int slot = slotFor(orderNumber);
+		long occupant = orderNumber(records, slot);
+		if(occupant == 0L){
+			stored.incrementAndGet();
+		} else if(occupant != orderNumber){
+			overwritten.incrementAndGet();
+		}
+		return slot;
+	}
+
+	private int slotFor(long orderNumber) {
+		int home = hash(orderNumber);
+		int oldest = home;
+		for (int probe = 0; probe < PROBES; probe++) {
+			int offset = ((home + probe) & mask) * SIZE;
+			long occupant = orderNumber(records, offset);
+			if(occupant == orderNumber || occupant == 0L) return offset;
+			if(occupant < orderNumber(records, oldest * SIZE)) oldest = (home + probe) & mask;
+		}
+		return oldest * SIZE;
+	}
+
+	@Override
+	public Optional<OrderStatus> findByOrderNumber(long orderNumber) {
+		long stamp = lock.tryOptimisticRead();
+		int offset = find(orderNumber);
+		byte kind = offset < 0 ? EMPTY : kind(records, offset);
+		byte reason = offset < 0 ? 0 : reason(records, offset);
+		short flavor = offset < 0 ? 0 : flavor(records, offset);
+		long cup = offset < 0 ? 0L : cup(records, offset);
+		long receipt = offset < 0 ? 0L : receipt(records, offset);
+		long balance = offset < 0 ? 0L : balance(records, offset);
+		if(!lock.validate(stamp)){
+			stamp = lock.readLock();
+			try {
+				offset = find(orderNumber);
+				if(offset < 0) return Optional.empty();
+				kind = kind(records, offset);
+				reason = reason(records, offset);
+				flavor = flavor(records, offset);
+				cup = cup(records, offset);
+				receipt = receipt(records, offset);
+				balance = balance(records, offset);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if(offset < 0) return Optional.empty();
+		return Optional.of(toOrderStatus(orderNumber, kind, reason, flavor, cup, receipt, balance, flavors));
+	}
+
+	private int find(long orderNumber) {
+		int home = hash(orderNumber);
+		for (int probe = 0; probe < PROBES; probe++) {
+			int offset = ((home + probe) & mask) * SIZE;
+			if(orderNumber(records, offset) == orderNumber) return offset;
+		}
+		return -1;
+	}
+
+	private int hash(long orderNumber) {
+		long h = orderNumber * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("orders.index.capacity", () -> mask + 1).register(registry);
+		FunctionCounter.builder("orders.index.stored", stored, AtomicLong::get).register(registry);
+		FunctionCounter.builder("orders.index.overwritten", overwritten, AtomicLong::get).register(registry);
+	}
+}
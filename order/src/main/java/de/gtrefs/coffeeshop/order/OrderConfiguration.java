@@ -1,25 +1,106 @@
 package de.gtrefs.coffeeshop.order;
 
 import java.io.*;
-import java.math.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.*;
 import java.util.*;
-import java.util.stream.*;
 
-import com.fasterxml.jackson.databind.*;
+import de.gtrefs.coffeeshop.common.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
 import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.autoconfigure.condition.*;
 import org.springframework.context.annotation.*;
+import org.springframework.util.unit.*;
 
 @Configuration
 public class OrderConfiguration {
 
+	// Flavors keep the ids they had before a restart, see OrderJournal
 	@Bean
-	public Prices prices(@Value("${coffeeshop.order.prices}") String prices) throws IOException {
-		var reader = new ObjectMapper().reader();
-		Map<String, String> pricesAsJson = reader.readValue(prices, Map.class);
-		var parsedPrices = pricesAsJson
-				.entrySet()
-				.stream()
-				.collect(Collectors.toMap(Map.Entry::getKey, e -> new BigDecimal(e.getValue())));
-		return Prices.of(parsedPrices);
+	public FlavorCatalog flavors(@Value("${coffeeshop.order.flavors}") List<String> flavors,
+								 @Value("${coffeeshop.order.journal.directory}") String journalDirectory) throws IOException {
+		return new FlavorCatalog(OrderJournal.knownFlavors(Paths.get(journalDirectory)), flavors);
+	}
+
+	@Bean
+	public Prices prices(@Value("${coffeeshop.order.prices}") String prices, FlavorCatalog flavors) throws IOException {
+		return Prices.of(Prices.parse(prices), flavors);
+	}
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty("coffeeshop.order.prices-file")
+	public PricesFile pricesFile(@Value("${coffeeshop.order.prices-file}") String file, Prices prices) throws IOException {
+		return PricesFile.watch(Paths.get(file), prices);
+	}
+
+	@Bean
+	public OffHeapOrderIndex orderIndex(@Value("${coffeeshop.order.index.capacity}") int capacity, FlavorCatalog flavors) {
+		return new OffHeapOrderIndex(capacity, flavors);
+	}
+
+	@Bean
+	public BoundedOrderRepository recentOrders(@Value("${coffeeshop.order.repository.maximum-size}") long maximumSize,
+											  @Value("${coffeeshop.order.repository.pending-retention}") Duration pendingRetention,
+											  @Value("${coffeeshop.order.repository.settled-retention}") Duration settledRetention,
+											  OffHeapOrderIndex orderIndex) {
+		return new BoundedOrderRepository(maximumSize, pendingRetention, settledRetention, orderIndex);
+	}
+
+	@Bean(destroyMethod = "close")
+	public OrderJournal orderJournal(@Value("${coffeeshop.order.journal.directory}") String directory,
+									 @Value("${coffeeshop.order.journal.segment-size}") DataSize segmentSize,
+									 @Value("${coffeeshop.order.journal.retained-segments}") int retainedSegments,
+									 @Value("${coffeeshop.order.journal.max-batch-size}") int maxBatchSize,
+									 @Value("${coffeeshop.order.journal.queue-capacity}") int queueCapacity,
+									 OffHeapOrderIndex orderIndex, FlavorCatalog flavors) throws IOException {
+		return OrderJournal.open(Paths.get(directory), segmentSize.toBytes(), retainedSegments, maxBatchSize, queueCapacity,
+								 orderIndex, flavors);
+	}
+
+	@Bean(destroyMethod = "close")
+	public ReconciliationOutbox reconciliationOutbox(@Value("${coffeeshop.order.reconciliation.directory}") String directory,
+													 @Value("${coffeeshop.order.reconciliation.segment-size}") DataSize segmentSize,
+													 @Value("${coffeeshop.order.reconciliation.card-key}") String cardKey,
+													 @Value("${coffeeshop.order.reconciliation.queue-capacity}") int queueCapacity) throws IOException {
+		return ReconciliationOutbox.open(Paths.get(directory), segmentSize.toBytes(), CardNumberCipher.of(cardKey), queueCapacity);
+	}
+
+	@Bean
+	public SnowflakeIds ids(@Value("${coffeeshop.order.node-id}") long nodeId, OrderJournal orderJournal) throws UnknownHostException {
+		var ids = SnowflakeIds.forNode(nodeId);
+		ids.advancePast(orderJournal.highestOrderNumber());
+		return ids;
+	}
+
+	@Bean
+	public MeterBinder idMetrics(SnowflakeIds ids) {
+		return registry -> FunctionCounter.builder("orders.ids.clock-rollbacks", ids, SnowflakeIds::clockRollbacks)
+										  .description("Ids handed out while the clock was behind")
+										  .register(registry);
+	}
+
+	@Bean(destroyMethod = "close")
+	public SpanFile spanFile(@Value("${coffeeshop.order.tracing.file}") String file,
+							 @Value("${coffeeshop.order.tracing.max-file-size}") DataSize maxFileSize,
+							 @Value("${coffeeshop.order.tracing.queue-capacity}") int queueCapacity) throws IOException {
+		return SpanFile.open(Paths.get(file), maxFileSize.toBytes(), queueCapacity);
+	}
+
+	@Bean
+	public Tracer tracer(@Value("${coffeeshop.order.tracing.traces-per-second}") int tracesPerSecond, SpanFile spanFile) {
+		return new Tracer("order", tracesPerSecond, spanFile);
+	}
+
+	@Bean
+	public TracingFilter tracingFilter(Tracer tracer) {
+		return new TracingFilter(tracer);
+	}
+
+	@Bean
+	@Primary
+	public OrderRepository orderRepository(OrderJournal orderJournal, BoundedOrderRepository recentOrders) {
+		return new JournaledOrderRepository(orderJournal, recentOrders);
 	}
 }
@@ -1,12 +1,17 @@
 package de.gtrefs.coffeeshop.order;
 
+import java.util.*;
+import java.util.function.*;
+
 import com.fasterxml.jackson.databind.*;
+import de.gtrefs.coffeeshop.common.*;
 import de.gtrefs.coffeeshop.order.OrderStatus.*;
 import org.slf4j.*;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.*;
+import reactor.util.context.*;
 
 import static de.gtrefs.coffeeshop.order.OrderStatus.OrderNotPossible.Reason.*;
 
@@ -32,8 +37,10 @@ public class OrderController {
 		}).switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
 	}
 
+	// The trace of the request goes along with the order, which is processed on other threads.
 	@PostMapping("/order")
 	public Mono<ResponseEntity<OrderStatus>> orderCoffee(@RequestBody Order coffeeOrder) {
+		var span = TracingFilter.currentSpan();
 		return orderService.orderCoffee(coffeeOrder)
 		   .map(orderStatus -> {
 				if(orderStatus.orderNotPossible()){
@@ -46,7 +53,20 @@ public class OrderController {
 				}
 				logger.info("Order successful {}.", orderStatus);
 				return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(orderStatus);
-		   });
+		   })
+		   .contextWrite(withSpan(span));
+	}
+
+	// Spring MVC reads request bodies as a whole, the statuses are streamed as they are ready.
+	@PostMapping(value = "/orders/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public Flux<OrderStatus> orderCoffees(@RequestBody List<Order> coffeeOrders) {
+		var span = TracingFilter.currentSpan();
+		return orderService.orderCoffees(Flux.fromIterable(coffeeOrders))
+						   .contextWrite(withSpan(span));
+	}
+
+	private static Function<Context, Context> withSpan(Optional<Span> span) {
+		return context -> span.map(current -> context.put(Span.class, current)).orElse(context);
 	}
 
 	private int errorCodeByReason(OrderNotPossible orderNotPossible) {
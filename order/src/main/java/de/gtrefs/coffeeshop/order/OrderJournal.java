@@ -0,0 +1,250 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+import org.slf4j.*;
+
+import static java.nio.channels.FileChannel.MapMode.*;
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+// Write-ahead journal of every order status transition. Entries are appended to
+// memory-mapped segment files by a single writer thread, which forces a whole
+// batch of entries to disk at once. Callers only enqueue, so nobody waits for the disk.
+//
+// An entry is an order status record followed by its CRC32 and a marker.
+// Replay stops at the first entry which has no marker or a wrong checksum.
+//
+// Records refer to their flavor by its id in the catalog. The names of all ids are kept
+// in a file next to the segments, which is written before the first entry with a new id.
+// The catalog is created from it on startup, so that ids decode to the same flavor as
+// before, whatever flavors are configured or offered by then.
+public class OrderJournal implements MeterBinder, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(OrderJournal.class);
+
+	private static final int ENTRY_SIZE = OrderStatusRecord.SIZE + 8;
+	private static final int MARKER = 0xC0FFEE;
+	private static final String SEGMENT_PREFIX = "orders-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final String FLAVORS = "flavors";
+	// Drops happen under overload, so they are logged once per interval and counted in orders.journal.dropped
+	private static final long DROPS_LOGGED_EVERY = TimeUnit.SECONDS.toNanos(10);
+
+	private final Path directory;
+	private final DirectoryLock directoryLock;
+	private final FlavorCatalog flavors;
+	private final int entriesPerSegment;
+	private final int retainedSegments;
+	private final int maxBatchSize;
+	private final BlockingQueue<OrderStatus> pending;
+	private final Thread writer;
+	private final CRC32 crc = new CRC32();
+	private final AtomicLong appended = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong droppedLogged = new AtomicLong();
+	private final AtomicLong nextDropLog = new AtomicLong(System.nanoTime());
+	private final AtomicLong commits = new AtomicLong();
+
+	private volatile boolean running = true;
+	private long segmentNumber;
+	private MappedByteBuffer segment;
+	private int position;
+	private long highestOrderNumber;
+	private long replayedEntries;
+	private int persistedFlavors;
+
+	private OrderJournal(Path directory, DirectoryLock directoryLock, long segmentSize, int retainedSegments, int maxBatchSize,
+						 int queueCapacity, FlavorCatalog flavors) {
+		this.directory = directory;
+		this.directoryLock = directoryLock;
+		this.flavors = flavors;
+		this.entriesPerSegment = (int) Math.min(Integer.MAX_VALUE / ENTRY_SIZE, segmentSize / ENTRY_SIZE);
+		this.retainedSegments = retainedSegments;
+		this.maxBatchSize = maxBatchSize;
+		this.pending = new ArrayBlockingQueue<>(queueCapacity);
+		this.writer = new Thread(this::writeBatches, "order-journal");
+		this.writer.setDaemon(true);
+	}
+
+	// Replays all segments into the index before the journal accepts new entries.
+	public static OrderJournal open(Path directory, long segmentSize, int retainedSegments, int maxBatchSize,
+									int queueCapacity, OffHeapOrderIndex index, FlavorCatalog flavors) throws IOException {
+		var directoryLock = DirectoryLock.lock(directory);
+		var journal = new OrderJournal(directory, directoryLock, segmentSize, retainedSegments, maxBatchSize, queueCapacity, flavors);
+		journal.replay(index);
+		journal.persistFlavors();
+		journal.writer.start();
+		return journal;
+	}
+
+	private void replay(OffHeapOrderIndex index) throws IOException {
+		var started = System.nanoTime();
+		var segments = segments();
+		for (Path path : segments) {
+			segmentNumber = segmentNumber(path);
+			segment = map(path);
+			position = 0;
+			while (position < entriesPerSegment * ENTRY_SIZE && valid(segment, position)) {
+				index.restore(segment, position);
+				highestOrderNumber = Math.max(highestOrderNumber, OrderStatusRecord.orderNumber(segment, position));
+				replayedEntries++;
+				position += ENTRY_SIZE;
+			}
+		}
+		if(segment == null){
+			roll();
+		}
+		logger.info("Replayed {} order status entries from {} segments in {} ms.", replayedEntries, segments.size(),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+	}
+
+	private boolean valid(ByteBuffer buffer, int offset) {
+		if(buffer.getInt(offset + OrderStatusRecord.SIZE + 4) != MARKER) return false;
+		return buffer.getInt(offset + OrderStatusRecord.SIZE) == checksum(buffer, offset);
+	}
+
+	private int checksum(ByteBuffer buffer, int offset) {
+		crc.reset();
+		for (int i = 0; i < OrderStatusRecord.SIZE; i++) {
+			crc.update(buffer.get(offset + i));
+		}
+		return (int) crc.getValue();
+	}
+
+	// The flavors known when the journal was written last, in the order of their ids
+	public static List<String> knownFlavors(Path directory) throws IOException {
+		var flavors = directory.resolve(FLAVORS);
+		return Files.exists(flavors) ? Files.readAllLines(flavors, StandardCharsets.UTF_8) : List.of();
+	}
+
+	private void persistFlavors() throws IOException {
+		var known = flavors.known();
+		var written = directory.resolve(FLAVORS + ".tmp");
+		Files.write(written, known, StandardCharsets.UTF_8);
+		try (var channel = FileChannel.open(written, WRITE)) {
+			channel.force(true);
+		}
+		Files.move(written, directory.resolve(FLAVORS), ATOMIC_MOVE, REPLACE_EXISTING);
+		persistedFlavors = known.size();
+	}
+
+	public long highestOrderNumber() {
+		return highestOrderNumber;
+	}
+
+	public void append(OrderStatus status) {
+		if(!pending.offer(status)){
+			var total = dropped.incrementAndGet();
+			var now = System.nanoTime();
+			var next = nextDropLog.get();
+			if(now - next >= 0 && nextDropLog.compareAndSet(next, now + DROPS_LOGGED_EVERY)){
+				logger.error("Order journal cannot keep up. Statuses of {} orders since the last report are not durable, " +
+							 "the latest of order {}.", total - droppedLogged.getAndSet(total), status.order().getOrderNumber());
+			}
+		}
+	}
+
+	private void writeBatches() {
+		var batch = new ArrayList<OrderStatus>(maxBatchSize);
+		while (running || !pending.isEmpty()) {
+			try {
+				var first = pending.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) continue;
+				batch.add(first);
+				pending.drainTo(batch, maxBatchSize - 1);
+				if(flavors.maxId() > persistedFlavors){
+					persistFlavors();
+				}
+				for (OrderStatus status : batch) {
+					write(status);
+				}
+				segment.force();
+				appended.addAndGet(batch.size());
+				commits.incrementAndGet();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (IOException | RuntimeException e) {
+				logger.error("Could not write {} order status entries to the journal.", batch.size(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(OrderStatus status) throws IOException {
+		if(position == entriesPerSegment * ENTRY_SIZE){
+			segment.force();
+			roll();
+		}
+		OrderStatusRecord.write(segment, position, status, flavors);
+		segment.putInt(position + OrderStatusRecord.SIZE, checksum(segment, position));
+		segment.putInt(position + OrderStatusRecord.SIZE + 4, MARKER);
+		position += ENTRY_SIZE;
+	}
+
+	private void roll() throws IOException {
+		segmentNumber++;
+		segment = map(directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX)));
+		position = 0;
+		var segments = segments();
+		for (int i = 0; i < segments.size() - retainedSegments; i++) {
+			Files.deleteIfExists(segments.get(i));
+		}
+	}
+
+	private MappedByteBuffer map(Path path) throws IOException {
+		try (var channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+			return channel.map(READ_WRITE, 0, (long) entriesPerSegment * ENTRY_SIZE);
+		}
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+						.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+						.sorted(Comparator.comparingLong(OrderJournal::segmentNumber))
+						.collect(Collectors.toList());
+		}
+	}
+
+	private static long segmentNumber(Path segment) {
+		var name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+			directoryLock.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.warn("Could not unlock the order journal.", e);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("orders.journal.appended", appended, AtomicLong::get).register(registry);
+		FunctionCounter.builder("orders.journal.dropped", dropped, AtomicLong::get).register(registry);
+		FunctionCounter.builder("orders.journal.commits", commits, AtomicLong::get).register(registry);
+		Gauge.builder("orders.journal.pending", pending, Collection::size).register(registry);
+		Gauge.builder("orders.journal.replayed", () -> replayedEntries).register(registry);
+	}
+}
@@ -0,0 +1,26 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.util.*;
+
+public interface OrderRepository {
+
+	OrderStatus save(OrderStatus status);
+
+	Optional<OrderStatus> findByOrderNumber(long orderNumber);
+
+	// Forgets everything it is given. Used when there is no store
+	// behind the in-memory repository to keep evicted orders in.
+	static OrderRepository none() {
+		return new OrderRepository() {
+			@Override
+			public OrderStatus save(OrderStatus status) {
+				return status;
+			}
+
+			@Override
+			public Optional<OrderStatus> findByOrderNumber(long orderNumber) {
+				return Optional.empty();
+			}
+		};
+	}
+}
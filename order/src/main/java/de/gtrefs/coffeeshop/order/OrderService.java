@@ -9,13 +9,19 @@ import java.util.concurrent.atomic.*;
 
 import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.*;
+import de.gtrefs.coffeeshop.common.*;
 import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.*;
 import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.*;
 import org.springframework.http.*;
 import org.springframework.stereotype.*;
 import org.springframework.web.reactive.function.client.*;
 import reactor.core.publisher.*;
+import reactor.util.context.*;
+import reactor.util.retry.*;
 
 import static de.gtrefs.coffeeshop.order.OrderStatus.OrderNotPossible.Reason.*;
 
@@ -24,75 +30,314 @@ public class OrderService {
 
 	private static final Logger logger = LoggerFactory.getLogger(OrderService.class);
 
-	@Value("${coffeeshop.barista.endpoint}/api/")
-	private String baristaServiceEndpoint;
+	@Value("${coffeeshop.barista.endpoint}")
+	private List<String> baristaEndpoints;
 
-	@Value("${coffeeshop.payment.endpoint}/api/")
-	private String paymentServiceEndpoint;
+	@Value("${coffeeshop.payment.endpoint}")
+	private List<String> paymentEndpoints;
+
+	@Value("${coffeeshop.order.load-balancing.max-consecutive-failures}")
+	private int maxConsecutiveFailures;
+
+	@Value("${coffeeshop.order.load-balancing.ejection-time}")
+	private Duration ejectionTime;
+
+	@Value("${coffeeshop.order.load-balancing.latency-factor}")
+	private double latencyFactor;
+
+	@Value("${coffeeshop.order.concurrency-limit.initial}")
+	private int initialConcurrencyLimit;
+
+	@Value("${coffeeshop.order.concurrency-limit.min}")
+	private int minConcurrencyLimit;
+
+	@Value("${coffeeshop.order.concurrency-limit.max}")
+	private int maxConcurrencyLimit;
+
+	@Value("${coffeeshop.order.concurrency-limit.backoff-ratio}")
+	private double concurrencyBackoffRatio;
+
+	@Value("${coffeeshop.order.concurrency-limit.slow-response}")
+	private Duration slowResponse;
+
+	@Value("${coffeeshop.order.batch.parallelism}")
+	private int batchParallelism;
+
+	@Value("${coffeeshop.barista.coalescing.enabled}")
+	private boolean coalesceCupOrders;
+
+	@Value("${coffeeshop.barista.coalescing.max-batch-size}")
+	private int maxCupsPerBatch;
+
+	@Value("${coffeeshop.barista.coalescing.window}")
+	private Duration coalescingWindow;
+
+	@Value("${coffeeshop.barista.flavors-refresh}")
+	private Duration flavorsRefresh;
+
+	@Value("${coffeeshop.barista.timeout}")
+	private Duration baristaTimeout;
+
+	@Value("${coffeeshop.barista.hedging.enabled}")
+	private boolean hedgeCupOrders;
+
+	@Value("${coffeeshop.barista.hedging.percentile}")
+	private double hedgingPercentile;
+
+	@Value("${coffeeshop.barista.hedging.initial-delay}")
+	private Duration initialHedgingDelay;
+
+	@Value("${coffeeshop.barista.hedging.min-delay}")
+	private Duration minHedgingDelay;
+
+	@Value("${coffeeshop.barista.hedging.budget-percent}")
+	private int hedgingBudgetPercent;
+
+	@Value("${coffeeshop.order.circuit-breaker.window-size}")
+	private int circuitWindowSize;
+
+	@Value("${coffeeshop.order.circuit-breaker.minimum-calls}")
+	private int circuitMinimumCalls;
+
+	@Value("${coffeeshop.order.circuit-breaker.failure-rate-threshold}")
+	private double failureRateThreshold;
+
+	@Value("${coffeeshop.order.circuit-breaker.slow-call-rate-threshold}")
+	private double slowCallRateThreshold;
+
+	@Value("${coffeeshop.order.circuit-breaker.slow-call}")
+	private Duration slowCall;
+
+	@Value("${coffeeshop.order.circuit-breaker.wait-in-open-state}")
+	private Duration waitInOpenState;
+
+	@Value("${coffeeshop.order.circuit-breaker.half-open-probes}")
+	private int halfOpenProbes;
+
+	@Value("${coffeeshop.order.reconciliation.batch-size}")
+	private int reconciliationBatchSize;
+
+	@Value("${coffeeshop.order.reconciliation.interval}")
+	private Duration reconciliationInterval;
+
+	@Value("${coffeeshop.payment.timeout}")
+	private Duration paymentTimeout;
+
+	@Value("${coffeeshop.payment.retry.max-attempts}")
+	private int maxPaymentRetries;
+
+	@Value("${coffeeshop.payment.retry.backoff}")
+	private Duration paymentRetryBackoff;
 
 	private final WebClient.Builder webClientBuilder;
+	private final MeterRegistry meterRegistry;
+	private final ApplicationEventPublisher eventPublisher;
 	private final Prices prices;
-	private final ConcurrentHashMap<Long, OrderStatus> orderRepository;
-	private final AtomicLong orderNumberGenerator = new AtomicLong(1);
+	private final FlavorCatalog flavors;
+	private final OrderRepository orderRepository;
+	private final SnowflakeIds ids;
+	private final TracedRequests tracedRequests = new TracedRequests();
 	private final ObjectReader errorReader = new ObjectMapper().readerFor(ErrorResponse.class);
 
 	private WebClient barista;
-	private FallBackBarista fallBackBarista = new FallBackBarista();
+	private CupOrderCoalescer cupOrderCoalescer;
+	private HedgedRequests hedgedCupOrders;
+	private final ReconciliationOutbox outbox;
+	private final FallBackBarista fallBackBarista;
+	private final FallbackCash fallbackCash;
 	private WebClient paymentProvider;
-	private FallbackCash fallbackCash = new FallbackCash();
+	private Reconciliation reconciliation;
+	private BaristaFlavors baristaFlavors;
+
+	// From accepting an order until it is payed, fallbacks included
+	private final Timer accepting;
+	private final Timer brewing;
+	private final Timer paying;
 
 	@Autowired
-	public OrderService(Prices prices, WebClient.Builder webClientBuilder){
+	public OrderService(Prices prices, FlavorCatalog flavors, OrderRepository orderRepository, SnowflakeIds ids,
+						ReconciliationOutbox outbox, WebClient.Builder webClientBuilder, MeterRegistry meterRegistry,
+						ApplicationEventPublisher eventPublisher){
 		this.webClientBuilder = webClientBuilder;
+		this.meterRegistry = meterRegistry;
+		this.eventPublisher = eventPublisher;
 		this.prices = prices;
-		this.orderRepository = new ConcurrentHashMap<>();
+		this.flavors = flavors;
+		this.orderRepository = orderRepository;
+		this.ids = ids;
+		this.outbox = outbox;
+		this.fallBackBarista = new FallBackBarista(outbox, ids, flavors);
+		this.fallbackCash = new FallbackCash(outbox, ids);
+		this.accepting = stage("accept");
+		this.brewing = stage("brew");
+		this.paying = stage("pay");
+	}
+
+	private Timer stage(String stage) {
+		return Timer.builder("orders.stage")
+					.description("Time an order spends in a stage")
+					.tag("stage", stage)
+					.register(meterRegistry);
 	}
 
 	@PostConstruct
 	public void connectToBaristaAndPaymentProvider(){
-		barista = webClientBuilder.baseUrl(baristaServiceEndpoint).build();
-		paymentProvider = webClientBuilder.baseUrl(paymentServiceEndpoint).build();
+		barista = connectTo("barista", baristaEndpoints);
+		paymentProvider = connectTo("payment", paymentEndpoints);
+		if(coalesceCupOrders){
+			cupOrderCoalescer = new CupOrderCoalescer(barista, maxCupsPerBatch, coalescingWindow, meterRegistry);
+		}
+		if(hedgeCupOrders){
+			hedgedCupOrders = new HedgedRequests("barista", hedgingPercentile, initialHedgingDelay, minHedgingDelay,
+												 hedgingBudgetPercent, meterRegistry);
+		}
+		reconciliation = new Reconciliation(outbox, barista, paymentProvider, reconciliationBatchSize, reconciliationInterval, meterRegistry);
+		reconciliation.start();
+		baristaFlavors = new BaristaFlavors(barista, flavors, flavorsRefresh);
+		baristaFlavors.start();
+	}
+
+	// An open circuit rejects requests before anything else happens. The concurrency limit
+	// comes before load balancing, so that it limits the service as a whole and not a single endpoint.
+	// Requests are traced last, so that every request which goes out has a span with its endpoint.
+	private WebClient connectTo(String name, List<String> endpoints) {
+		var circuitBreaker = new CircuitBreaker(name, circuitWindowSize, circuitMinimumCalls, failureRateThreshold,
+												slowCallRateThreshold, slowCall, waitInOpenState, halfOpenProbes,
+												eventPublisher::publishEvent, meterRegistry);
+		var concurrencyLimit = new AdaptiveConcurrencyLimit(name, initialConcurrencyLimit, minConcurrencyLimit, maxConcurrencyLimit,
+															concurrencyBackoffRatio, slowResponse, meterRegistry);
+		var loadBalancer = new LoadBalancedEndpoints(name, endpoints, maxConsecutiveFailures, ejectionTime, latencyFactor, meterRegistry);
+		return webClientBuilder.clone()
+							   .baseUrl(loadBalancer.firstEndpoint() + "/api/")
+							   .filter(circuitBreaker)
+							   .filter(concurrencyLimit)
+							   .filter(loadBalancer)
+							   .filter(tracedRequests)
+							   .build();
+	}
+
+	@PreDestroy
+	public void stopCoalescingCupOrders(){
+		reconciliation.stop();
+		baristaFlavors.stop();
+		if(cupOrderCoalescer != null){
+			cupOrderCoalescer.close();
+		}
 	}
 
 	public Mono<OrderStatus> orderCoffee(Order order){
 		return acceptOrder(order)
 				.flatMap(this::makeCoffee)
-				.flatMap(this::payForCoffee);
+				.flatMap(this::payForCoffee)
+				.doOnNext(this::countOutcome)
+				.doOnError(e -> meterRegistry.counter("orders.outcome", "outcome", "failed", "reason", NONE.name()).increment());
 	}
 
-	private Mono<OrderAccepted> acceptOrder(Order order) {
-		var orderNumber = orderNumberGenerator.getAndIncrement();
-		OrderAccepted orderAccepted = (OrderAccepted) orderRepository.compute(orderNumber, (number, status) -> {
-			order.setOrderNumber(orderNumber);
-			return new OrderAccepted(order);
+	private void countOutcome(OrderStatus status) {
+		if(status.orderNotPossible()){
+			var reason = ((OrderNotPossible) status).reason;
+			meterRegistry.counter("orders.outcome", "outcome", "not-possible", "reason", reason.name()).increment();
+		} else {
+			meterRegistry.counter("orders.outcome", "outcome", "payed", "reason", NONE.name()).increment();
+		}
+	}
+
+	private void countFallback(String fallback, String cause) {
+		meterRegistry.counter("orders.fallbacks", "fallback", fallback, "cause", cause).increment();
+	}
+
+	// Within a trace, the stage is a span of its own
+	private <T> Mono<T> timed(Timer stage, String name, Mono<T> work) {
+		return Mono.deferContextual(context -> {
+			var started = System.nanoTime();
+			var span = context.<Span>getOrEmpty(Span.class).map(parent -> parent.child(name, Span.Kind.INTERNAL));
+			return span.map(child -> work.contextWrite(Context.of(Span.class, child))).orElse(work)
+					   .doFinally(signal -> {
+						   stage.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+						   span.ifPresent(Span::end);
+					   });
 		});
+	}
+
+	// Orders are processed concurrently, but their statuses are emitted in the
+	// same order as the orders came in, so that clients can match them up.
+	public Flux<OrderStatus> orderCoffees(Flux<Order> orders){
+		return orders.flatMapSequential(order -> orderCoffee(order).onErrorResume(e -> Mono.just(orderFailed(order, e))),
+										batchParallelism);
+	}
+
+	// Customers who look up a failed order see that it failed, not how far it got.
+	private OrderStatus orderFailed(Order order, Throwable error) {
+		logger.warn("Could not process order {} of a batch.", order, error);
+		var errorResponse = new ErrorResponse(
+				"INTERNAL_SERVER_ERROR",
+				Collections.singletonList("Something went wrong while processing your order.")
+		);
+		var orderNotPossible = new OrderNotPossible(order, errorResponse, NONE);
+		if(order.getOrderNumber() != null){
+			orderRepository.save(orderNotPossible);
+		}
+		countOutcome(orderNotPossible);
+		return orderNotPossible;
+	}
+
+	private Mono<OrderAccepted> acceptOrder(Order order) {
+		var started = System.nanoTime();
+		var orderNumber = ids.next();
+		order.setOrderNumber(orderNumber);
+		var orderAccepted = new OrderAccepted(order);
+		orderRepository.save(orderAccepted);
+		accepting.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
 		return Mono.just(orderAccepted);
 	}
 
 	private Mono<OrderStatus> makeCoffee(OrderAccepted orderAccepted) {
 		logger.info("Order accepted, making coffee: {}.", orderAccepted);
 		var order = orderAccepted.order;
-		return barista.post()
-					  .uri(uriBuilder -> uriBuilder.path("coffees").build())
-					  .contentType(MediaType.APPLICATION_JSON)
-					  .bodyValue(new CupOrder(order.getFlavor()))
-					  .retrieve()
-					  .bodyToMono(OrderedCup.class)
+		return timed(brewing, "brew", brew(new CupOrder(ids.next(), order.getFlavor()))
 					  .map(cup -> (OrderStatus) new CoffeeOrdered(order, cup))
-					  .timeout(Duration.ofMillis(100))
+					  .timeout(baristaTimeout)
 					  .onErrorResume(TimeoutException.class, e -> {
 					  	logger.warn("First Barista is very slow. Asking second Barista to cover.");
+					  	countFallback("second-barista", "timeout");
 					  	return Mono.just(fallBackBarista.makeCoffee(order));
 					  })
+					  .onErrorResume(CallNotPermitted.class, e -> {
+						  logger.warn("First Barista is busy or unavailable. Asking second Barista to cover: {}", e.getMessage());
+						  countFallback("second-barista", "not-permitted");
+						  return Mono.just(fallBackBarista.makeCoffee(order));
+					  })
 					  .onErrorResume(WebClientResponseException.class, e -> {
 						  logger.warn("First Barista cannot process the order. Let's ask the second Barista.", e);
 						  return Mono.just(fallBackOrRejectOrder(order, e));
-					  })
-					  .doOnNext(status -> orderRepository.put(status.order().getOrderNumber(), status));
+					  }))
+					  .doOnNext(orderRepository::save);
+	}
+
+	// Only flavors the barista knows are coalesced. A batch is rejected as a whole,
+	// so a single unknown flavor would spoil the cups of everybody else.
+	private Mono<OrderedCup> brew(CupOrder cupOrder) {
+		if(cupOrderCoalescer != null && flavors.offers(cupOrder.flavor)){
+			return cupOrderCoalescer.order(cupOrder);
+		}
+		if(hedgedCupOrders != null){
+			return hedgedCupOrders.send(() -> orderCup(cupOrder));
+		}
+		return orderCup(cupOrder);
+	}
+
+	private Mono<OrderedCup> orderCup(CupOrder cupOrder) {
+		return barista.post()
+					  .uri(uriBuilder -> uriBuilder.path("coffees").build())
+					  .contentType(MediaType.APPLICATION_JSON)
+					  .bodyValue(cupOrder)
+					  .retrieve()
+					  .bodyToMono(OrderedCup.class);
 	}
 
 	private OrderStatus fallBackOrRejectOrder(Order order, WebClientResponseException response) {
 		if(response.getStatusCode().is5xxServerError()){
+			countFallback("second-barista", "server-error");
 			return fallBackBarista.makeCoffee(order);
 		}
 		// TODO: Exercise 1 Return order not possible with proper error message
@@ -105,22 +350,44 @@ public class OrderService {
 		}
 		CoffeeOrdered ordered = (CoffeeOrdered) orderStatus;
 		logger.info("Coffee ordered, paying for coffee: {}.", ordered);
-		return Mono.justOrEmpty(paymentCharge(ordered)).flatMap(paymentCharge -> {
+		return timed(paying, "pay", Mono.justOrEmpty(paymentCharge(ordered)).flatMap(paymentCharge -> {
 			return paymentProvider.post()
 				   .uri(uriBuilder -> uriBuilder.path("charge").build())
 				   .contentType(MediaType.APPLICATION_JSON)
 				   .bodyValue(paymentCharge)
 				   .retrieve()
 				   .bodyToMono(Receipt.class)
+				   .timeout(paymentTimeout)
+				   .retryWhen(paymentRetry())
 				   .map(receipt -> (OrderStatus) new CoffeePayed(receipt, ordered.cup, ordered.order));
+		}).onErrorResume(CallNotPermitted.class, e -> {
+			logger.warn("Payment provider is busy or unavailable. Letting the customer pay by cash: {}", e.getMessage());
+			countFallback("cash", "not-permitted");
+			return payByCash(ordered);
+		}).onErrorResume(TimeoutException.class, e -> {
+			// The charge may have gone through, reconciliation sends it with the same idempotency key
+			logger.warn("Payment provider did not answer in time. Letting the customer pay by cash.");
+			countFallback("cash", "timeout");
+			return payByCash(ordered);
 		}).onErrorResume(WebClientRequestException.class, e -> {
 			logger.warn("Payment provider could not process payment. We cannot fulfill the order.", e);
 			// TODO: Exercise 3 Fall back to to cash if the request was not successful
 			throw e;
 		}).onErrorResume(WebClientResponseException.class, e -> {
 			return Mono.just(insufficientFunds(ordered.order, e));
-		}).switchIfEmpty(paymentNotPossible(ordered.order()))
-				   .doOnNext(status -> orderRepository.put(status.order().getOrderNumber(), status));
+		}).switchIfEmpty(paymentNotPossible(ordered.order())))
+				   .doOnNext(orderRepository::save);
+	}
+
+	// Charges carry an idempotency key, so the payment provider charges a retried
+	// request only once. Rejected charges are final and not retried. Each attempt has
+	// its own timeout, so a hung provider holds an order for retries + 1 timeouts at most.
+	private Retry paymentRetry() {
+		return Retry.backoff(maxPaymentRetries, paymentRetryBackoff)
+					.filter(e -> e instanceof WebClientRequestException || e instanceof TimeoutException
+							|| e instanceof WebClientResponseException && ((WebClientResponseException) e).getStatusCode().is5xxServerError())
+					.doBeforeRetry(signal -> logger.warn("Retrying payment after failed attempt {}.", signal.totalRetries() + 1))
+					.onRetryExhaustedThrow((spec, signal) -> signal.failure());
 	}
 
 	private OrderStatus insufficientFunds(Order order, WebClientResponseException response) {
@@ -148,31 +415,41 @@ public class OrderService {
 	private Optional<PaymentCharge> paymentCharge(CoffeeOrdered status) {
 		var order = status.order;
 		var number = order.getCreditCardNumber();
-		return prices.forOrder(order).map(price -> PaymentCharge.of(price, number));
+		return prices.forOrder(order).map(price -> PaymentCharge.of(price.price, price.version, number, order.getOrderNumber()));
 	}
 
 	public Mono<OrderStatus> oderStatus(Long id) {
-		OrderStatus orderStatus = orderRepository.get(id);
-		return orderStatus == null ? Mono.empty() : Mono.just(orderStatus);
+		return Mono.justOrEmpty(orderRepository.findByOrderNumber(id));
 	}
 
+	// The id is given by us, so that a cup which is ordered twice, e.g. by a hedge, is only brewed once.
 	public static class CupOrder {
+		public final Long id;
 		public final String flavor;
 
-		public CupOrder(String flavor) {this.flavor = flavor;}
+		public CupOrder(Long id, String flavor) {
+			this.id = id;
+			this.flavor = flavor;
+		}
 	}
 
 	public static class PaymentCharge {
 		public final BigDecimal price;
+		// The prices the price was taken from, see Prices
+		public final long priceVersion;
 		public final String creditCardNumber;
+		public final String idempotencyKey;
 
-		private PaymentCharge(BigDecimal price, String creditCardNumber) {
+		private PaymentCharge(BigDecimal price, long priceVersion, String creditCardNumber, String idempotencyKey) {
 			this.price = price;
+			this.priceVersion = priceVersion;
 			this.creditCardNumber = creditCardNumber;
+			this.idempotencyKey = idempotencyKey;
 		}
 
-		public static PaymentCharge of(Prices.Price price, String creditCardNumber){
-			return new PaymentCharge(price.price, creditCardNumber);
+		// Charges for the same order are only made once by the payment provider.
+		public static PaymentCharge of(BigDecimal price, long priceVersion, String creditCardNumber, long orderNumber){
+			return new PaymentCharge(price, priceVersion, creditCardNumber, "order-" + orderNumber);
 		}
 	}
 }
@@ -0,0 +1,137 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.math.*;
+import java.nio.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.OrderNotPossible.*;
+
+// Fixed-width binary encoding of an order status. Only what is needed to answer
+// a status request is kept: the credit card number and error details are dropped.
+//
+//  0: order number   (long)
+//  8: kind           (byte)
+//  9: reason         (byte)
+// 10: flavor id      (short)
+// 12: unused         (int)
+// 16: cup id         (long)
+// 24: receipt id     (long)
+// 32: balance cents  (long)
+public final class OrderStatusRecord {
+
+	public static final int SIZE = 40;
+
+	public static final byte EMPTY = 0;
+	public static final byte ACCEPTED = 1;
+	public static final byte ORDERED = 2;
+	public static final byte PAYED = 3;
+	public static final byte NOT_POSSIBLE = 4;
+
+	private static final int ORDER_NUMBER = 0;
+	private static final int KIND = 8;
+	private static final int REASON = 9;
+	private static final int FLAVOR = 10;
+	private static final int CUP = 16;
+	private static final int RECEIPT = 24;
+	private static final int BALANCE = 32;
+
+	private static final long ABSENT = 0L;
+	private static final Reason[] reasons = Reason.values();
+
+	private OrderStatusRecord() {
+	}
+
+	public static void write(ByteBuffer buffer, int offset, OrderStatus status, FlavorCatalog flavors) {
+		var order = status.order();
+		buffer.putLong(offset + ORDER_NUMBER, order.getOrderNumber());
+		// An order keeps its flavor, even if the flavor was withdrawn while it was brewed
+		buffer.putShort(offset + FLAVOR, (short) flavors.knownIdOf(order.getFlavor()));
+		buffer.putInt(offset + FLAVOR + 2, 0);
+		buffer.put(offset + REASON, (byte) 0);
+		buffer.putLong(offset + CUP, ABSENT);
+		buffer.putLong(offset + RECEIPT, ABSENT);
+		buffer.putLong(offset + BALANCE, 0L);
+		if(status.coffeeOrdered()){
+			buffer.putLong(offset + CUP, idOrAbsent(((CoffeeOrdered) status).cup.getId()));
+			buffer.put(offset + KIND, ORDERED);
+		} else if(status.coffeePayed()){
+			var payed = (CoffeePayed) status;
+			buffer.putLong(offset + CUP, idOrAbsent(payed.cup.getId()));
+			buffer.putLong(offset + RECEIPT, idOrAbsent(payed.receipt.getId()));
+			buffer.putLong(offset + BALANCE, cents(payed.receipt.getBalance()));
+			buffer.put(offset + KIND, PAYED);
+		} else if(status.orderNotPossible()){
+			buffer.put(offset + REASON, (byte) ((OrderNotPossible) status).reason.ordinal());
+			buffer.put(offset + KIND, NOT_POSSIBLE);
+		} else {
+			buffer.put(offset + KIND, ACCEPTED);
+		}
+	}
+
+	public static long orderNumber(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset + ORDER_NUMBER);
+	}
+
+	public static byte kind(ByteBuffer buffer, int offset) {
+		return buffer.get(offset + KIND);
+	}
+
+	public static byte reason(ByteBuffer buffer, int offset) {
+		return buffer.get(offset + REASON);
+	}
+
+	public static short flavor(ByteBuffer buffer, int offset) {
+		return buffer.getShort(offset + FLAVOR);
+	}
+
+	public static long cup(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset + CUP);
+	}
+
+	public static long receipt(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset + RECEIPT);
+	}
+
+	public static long balance(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset + BALANCE);
+	}
+
+	// Builds the status from decoded fields. Decoding itself stays on primitives,
+	// objects are only created once we know which order we answer with.
+	public static OrderStatus toOrderStatus(long orderNumber, byte kind, byte reason, short flavor, long cupId, long receiptId, long balance,
+											FlavorCatalog flavors) {
+		var order = new Order(orderNumber, flavors.nameOf(flavor), null);
+		switch (kind) {
+			case ORDERED:
+				return new CoffeeOrdered(order, cup(cupId, order.getFlavor()));
+			case PAYED:
+				var receipt = new Receipt();
+				receipt.setId(receiptId == ABSENT ? null : receiptId);
+				receipt.setBalance(BigDecimal.valueOf(balance, 2));
+				return new CoffeePayed(receipt, cup(cupId, order.getFlavor()), order);
+			case NOT_POSSIBLE:
+				var why = reasons[reason];
+				var error = new ErrorResponse(why.name(), Collections.singletonList(why.toString()));
+				return new OrderNotPossible(order, error, why);
+			default:
+				return new OrderAccepted(order);
+		}
+	}
+
+	private static OrderedCup cup(long cupId, String flavor) {
+		var cup = new OrderedCup();
+		cup.setId(cupId == ABSENT ? null : cupId);
+		cup.setFlavor(flavor);
+		return cup;
+	}
+
+	private static long idOrAbsent(Long id) {
+		return id == null ? ABSENT : id;
+	}
+
+	private static long cents(BigDecimal amount) {
+		return amount == null ? 0L : amount.movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValue();
+	}
+}
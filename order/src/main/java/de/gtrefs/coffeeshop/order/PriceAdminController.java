@@ -0,0 +1,52 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.math.*;
+import java.util.*;
+
+import org.slf4j.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+
+// Changes prices without a restart. The prices given replace all prices.
+@RestController
+@RequestMapping(value = "/api/admin", produces = { MediaType.APPLICATION_JSON_VALUE })
+public class PriceAdminController {
+
+	private final static Logger logger = LoggerFactory.getLogger(PriceAdminController.class);
+
+	private final Prices prices;
+
+	@Autowired
+	public PriceAdminController(Prices prices) {
+		this.prices = prices;
+	}
+
+	@GetMapping("/prices")
+	PriceTable prices() {
+		return new PriceTable(prices.version(), prices.prices());
+	}
+
+	@PutMapping("/prices")
+	PriceTable update(@RequestBody Map<String, BigDecimal> updated) {
+		var version = prices.update(updated);
+		logger.info("Prices are now version {}: {}", version, updated);
+		return prices();
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	ResponseEntity<ErrorResponse> rejected(IllegalArgumentException e) {
+		logger.warn("Prices stay version {}: {}", prices.version(), e.getMessage());
+		return new ResponseEntity<>(new ErrorResponse("BAD_REQUEST", List.of(e.getMessage())), HttpStatus.BAD_REQUEST);
+	}
+
+	public static class PriceTable {
+		public final long version;
+		public final Map<String, BigDecimal> prices;
+
+		public PriceTable(long version, Map<String, BigDecimal> prices) {
+			this.version = version;
+			this.prices = prices;
+		}
+	}
+}
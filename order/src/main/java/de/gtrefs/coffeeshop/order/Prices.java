@@ -1,29 +1,110 @@
 package de.gtrefs.coffeeshop.order;
 
+import java.io.*;
 import java.math.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
 
-public class Prices {
+import com.fasterxml.jackson.databind.*;
+import de.gtrefs.coffeeshop.common.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
 
-	private final Map<String, BigDecimal> prices;
+// Prices by flavor id. Flavors without a price cannot be payed for. Prices must be
+// positive, a price of zero or below would credit the card instead of charging it.
+//
+// The prices are an immutable table which is replaced as a whole, so that an order
+// never sees half of an update and reads never take a lock. Every table has a version,
+// the time it was set in milliseconds, which stays unique across restarts.
+public class Prices implements MeterBinder {
 
-	private Prices(Map<String, BigDecimal> prices) {
-		this.prices = prices;
+	private static final ObjectReader reader = new ObjectMapper().readerFor(Map.class);
+
+	private final FlavorCatalog flavors;
+	private final AtomicReference<Table> table = new AtomicReference<>();
+
+	private Prices(Map<String, BigDecimal> prices, FlavorCatalog flavors) {
+		this.flavors = flavors;
+		update(prices);
 	}
 
-	public static Prices of(Map<String, BigDecimal> prices) {
-		return new Prices(prices);
+	public static Prices of(Map<String, BigDecimal> prices, FlavorCatalog flavors) {
+		return new Prices(prices, flavors);
+	}
+
+	// Prices as configured, e.g. {"melange": "5.00", "black": "2.35"}
+	public static Map<String, BigDecimal> parse(String json) throws IOException {
+		Map<String, Object> prices = reader.readValue(json);
+		return prices.entrySet()
+					 .stream()
+					 .collect(Collectors.toMap(Map.Entry::getKey, e -> new BigDecimal(e.getValue().toString())));
 	}
 
 	public Optional<Price> forOrder(Order order) {
-		return Optional.ofNullable(prices.get(order.getFlavor().toLowerCase())).map(Price::new);
+		var current = table.get();
+		var id = flavors.idOf(order.getFlavor());
+		var price = id < current.byFlavor.length ? current.byFlavor[id] : null;
+		if(price == null && id != FlavorCatalog.UNKNOWN){
+			// Offered, or offered again, after the prices were set
+			return Optional.ofNullable(current.prices.get(flavors.nameOf(id).toLowerCase()))
+						   .map(byName -> new Price(byName, current.version));
+		}
+		return Optional.ofNullable(price);
+	}
+
+	public long update(Map<String, BigDecimal> prices) {
+		prices.forEach((flavor, price) -> {
+			if(price == null || price.signum() <= 0){
+				throw new IllegalArgumentException("Price of " + flavor + " must be positive, but is " + price + ".");
+			}
+		});
+		return table.updateAndGet(current -> {
+			var version = Math.max(System.currentTimeMillis(), current == null ? 0 : current.version + 1);
+			return new Table(version, prices, flavors);
+		}).version;
+	}
+
+	public long version() {
+		return table.get().version;
+	}
+
+	public Map<String, BigDecimal> prices() {
+		return table.get().prices;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("orders.prices.version", this, Prices::version)
+			 .description("Version of the prices orders are charged with")
+			 .register(registry);
+	}
+
+	private static class Table {
+		private final long version;
+		private final Map<String, BigDecimal> prices;
+		private final Price[] byFlavor;
+
+		private Table(long version, Map<String, BigDecimal> prices, FlavorCatalog flavors) {
+			this.version = version;
+			var lowerCase = new HashMap<String, BigDecimal>();
+			prices.forEach((flavor, price) -> lowerCase.put(flavor.toLowerCase(), price));
+			this.prices = Collections.unmodifiableMap(lowerCase);
+			this.byFlavor = new Price[flavors.maxId() + 1];
+			prices.forEach((flavor, price) -> {
+				var id = flavors.idOf(flavor);
+				if(id != FlavorCatalog.UNKNOWN) byFlavor[id] = new Price(price, version);
+			});
+		}
 	}
 
 	public static class Price {
 		public final BigDecimal price;
+		public final long version;
 
-		private Price(BigDecimal price){
+		private Price(BigDecimal price, long version){
 			this.price = price;
+			this.version = version;
 		}
 	}
 }
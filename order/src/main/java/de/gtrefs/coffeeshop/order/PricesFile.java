@@ -0,0 +1,71 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import org.slf4j.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Updates the prices whenever the file with them changes. The file holds the same
+// JSON as coffeeshop.order.prices. A file which cannot be read leaves the prices as they are.
+public class PricesFile implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PricesFile.class);
+
+	private final Path file;
+	private final Prices prices;
+	private final WatchService watcher;
+	private final Thread watching;
+
+	private PricesFile(Path file, Prices prices) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.prices = prices;
+		this.watcher = file.getFileSystem().newWatchService();
+		this.file.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+		this.watching = new Thread(this::watch, "prices-file");
+		this.watching.setDaemon(true);
+	}
+
+	public static PricesFile watch(Path file, Prices prices) throws IOException {
+		var pricesFile = new PricesFile(file, prices);
+		if(Files.exists(pricesFile.file)){
+			pricesFile.reload();
+		}
+		pricesFile.watching.start();
+		return pricesFile;
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				var key = watcher.take();
+				// Editors write a file in several steps, wait for them to finish.
+				TimeUnit.MILLISECONDS.sleep(50);
+				var changed = key.pollEvents()
+								 .stream()
+								 .anyMatch(event -> file.getFileName().equals(event.context()));
+				key.reset();
+				if(changed) reload();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Closed
+		}
+	}
+
+	private void reload() {
+		try {
+			var version = prices.update(Prices.parse(Files.readString(file)));
+			logger.info("Prices from {} are now version {}.", file, version);
+		} catch (IOException | RuntimeException e) {
+			logger.error("Could not read prices from {}, keeping version {}.", file, prices.version(), e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+		watching.interrupt();
+	}
+}
@@ -0,0 +1,155 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.math.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+import de.gtrefs.coffeeshop.order.OrderService.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import de.gtrefs.coffeeshop.order.ReconciliationOutbox.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.*;
+import reactor.core.publisher.*;
+import reactor.core.scheduler.*;
+
+// Hands the cups of the fallback barista to the coffee service and the cash payments
+// to the payment service. One batch per interval at most, so that services which just
+// came back are not flooded. Cups keep their ids and charges carry the idempotency key
+// of their order, so a batch which failed halfway can simply be sent again.
+//
+// What a service rejects with a 4xx will never be taken, sending it again would only block
+// the outbox. Such a charge is counted and skipped. A rejected batch of cups is sent again
+// cup by cup, so that only the cups which are rejected on their own are counted and skipped.
+public class Reconciliation {
+
+	private static final Logger logger = LoggerFactory.getLogger(Reconciliation.class);
+
+	private static final int CONCURRENT_CHARGES = 4;
+
+	private final ReconciliationOutbox outbox;
+	private final WebClient barista;
+	private final WebClient paymentProvider;
+	private final int batchSize;
+	private final Duration interval;
+	private final Counter reconciledCups;
+	private final Counter reconciledCharges;
+	private final Counter uncollectibleCharges;
+	private final Counter rejectedCups;
+
+	private Disposable batches;
+
+	public Reconciliation(ReconciliationOutbox outbox, WebClient barista, WebClient paymentProvider, int batchSize,
+						  Duration interval, MeterRegistry meterRegistry) {
+		this.outbox = outbox;
+		this.barista = barista;
+		this.paymentProvider = paymentProvider;
+		this.batchSize = batchSize;
+		this.interval = interval;
+		this.reconciledCups = Counter.builder("orders.reconciliation.cups").register(meterRegistry);
+		this.reconciledCharges = Counter.builder("orders.reconciliation.charges").register(meterRegistry);
+		this.uncollectibleCharges = Counter.builder("orders.reconciliation.uncollectible")
+										   .description("Cash payments the payment service rejected")
+										   .register(meterRegistry);
+		this.rejectedCups = Counter.builder("orders.reconciliation.rejected")
+								   .description("Cups of the fallback barista the coffee service rejected")
+								   .register(meterRegistry);
+	}
+
+	public void start() {
+		batches = Flux.interval(interval)
+					  .onBackpressureDrop()
+					  .concatMap(tick -> reconcileNextBatch(), 1)
+					  .subscribe();
+	}
+
+	Mono<Void> reconcileNextBatch() {
+		return Mono.fromCallable(() -> outbox.next(batchSize))
+				   .subscribeOn(Schedulers.boundedElastic())
+				   .filter(entries -> !entries.isEmpty())
+				   .flatMap(entries -> brew(cups(entries))
+						   .then(charge(charges(entries)))
+						   .then(Mono.fromCallable(() -> {
+							   outbox.acknowledge(entries);
+							   return entries;
+						   }).subscribeOn(Schedulers.boundedElastic())))
+				   .then()
+				   .onErrorResume(e -> {
+					   logger.warn("Could not reconcile fallback orders, will try again: {}", e.getMessage());
+					   return Mono.fromCallable(() -> {
+						   outbox.rewind();
+						   return true;
+					   }).subscribeOn(Schedulers.boundedElastic()).then();
+				   });
+	}
+
+	private Mono<Void> brew(List<OrderedCup> cups) {
+		if(cups.isEmpty()) return Mono.empty();
+		return barista.post()
+					  .uri(uriBuilder -> uriBuilder.path("coffees/batch").build())
+					  .contentType(MediaType.APPLICATION_JSON)
+					  .bodyValue(cups)
+					  .retrieve()
+					  .bodyToFlux(OrderedCup.class)
+					  .doOnNext(cup -> reconciledCups.increment())
+					  .then()
+					  .onErrorResume(WebClientResponseException.class, e -> {
+						  if(e.getStatusCode().is5xxServerError()) return Mono.error(e);
+						  if(cups.size() > 1) return Flux.fromIterable(cups).concatMap(cup -> brew(List.of(cup))).then();
+						  logger.error("Cup {} of the fallback barista was rejected: {}", cups.get(0).getId(), e.getResponseBodyAsString());
+						  rejectedCups.increment();
+						  return Mono.empty();
+					  });
+	}
+
+	private Mono<Void> charge(List<PaymentCharge> charges) {
+		return Flux.fromIterable(charges)
+				   .flatMap(charge -> paymentProvider.post()
+													 .uri(uriBuilder -> uriBuilder.path("charge").build())
+													 .contentType(MediaType.APPLICATION_JSON)
+													 .bodyValue(charge)
+													 .retrieve()
+													 .bodyToMono(Receipt.class)
+													 .doOnNext(receipt -> reconciledCharges.increment())
+													 .onErrorResume(WebClientResponseException.class, e -> {
+														 if(e.getStatusCode().is5xxServerError()) return Mono.error(e);
+														 logger.error("Cash payment of {} was rejected: {}", charge.idempotencyKey, e.getResponseBodyAsString());
+														 uncollectibleCharges.increment();
+														 return Mono.empty();
+													 }), CONCURRENT_CHARGES)
+				   .then();
+	}
+
+	private static List<OrderedCup> cups(List<Entry> entries) {
+		return entries.stream().filter(entry -> entry.kind == Entry.CUP).map(entry -> {
+			var cup = new OrderedCup();
+			cup.setId(entry.id);
+			cup.setFlavor(entry.detail);
+			return cup;
+		}).collect(Collectors.toList());
+	}
+
+	private List<PaymentCharge> charges(List<Entry> entries) {
+		return entries.stream()
+					  .filter(entry -> entry.kind == Entry.CHARGE)
+					  .filter(entry -> {
+						  if(entry.detail != null) return true;
+						  logger.error("Card number of the cash payment for order {} cannot be decrypted.", entry.orderNumber);
+						  uncollectibleCharges.increment();
+						  return false;
+					  })
+					  .map(entry -> PaymentCharge.of(BigDecimal.valueOf(entry.cents, 2), entry.priceVersion, entry.detail,
+															entry.orderNumber))
+					  .collect(Collectors.toList());
+	}
+
+	public void stop() {
+		if(batches != null){
+			batches.dispose();
+		}
+	}
+}
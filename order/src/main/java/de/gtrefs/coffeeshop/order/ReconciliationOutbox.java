@@ -0,0 +1,356 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+import org.slf4j.*;
+
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+// Durable queue of what the fallback barista and the fallback cash desk did, so that it
+// can be handed to the coffee and the payment service once they are back. Entries are
+// written by a single writer thread, which forces a whole batch of them to disk at once.
+//
+// An entry is its length, the CRC32 of its payload and the payload. Entries are read in
+// order and acknowledged once they are reconciled. The position of the first entry which
+// is not acknowledged yet is kept in a cursor file. Segments behind it are deleted.
+//
+// Card numbers of charges are written encrypted, see CardNumberCipher. They stay on disk
+// until the segment they are in is deleted, i.e. until every entry of it was reconciled.
+public class ReconciliationOutbox implements MeterBinder, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReconciliationOutbox.class);
+
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+	private static final String SEGMENT_PREFIX = "outbox-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CURSOR = "outbox.cursor";
+
+	private final Path directory;
+	private final DirectoryLock directoryLock;
+	private final long segmentSize;
+	private final CardNumberCipher cardNumbers;
+	private final BlockingQueue<Entry> pending;
+	private final Thread writer;
+	private final CRC32 crc = new CRC32();
+	private final AtomicLong appended = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong acknowledged = new AtomicLong();
+	private final AtomicLong unreconciled = new AtomicLong();
+
+	private volatile boolean running = true;
+	private FileChannel segment;
+	private long segmentNumber;
+	private volatile Position written;
+	private Position read;
+
+	private ReconciliationOutbox(Path directory, DirectoryLock directoryLock, long segmentSize, CardNumberCipher cardNumbers,
+								 int queueCapacity) {
+		this.directory = directory;
+		this.directoryLock = directoryLock;
+		this.segmentSize = segmentSize;
+		this.cardNumbers = cardNumbers;
+		this.pending = new ArrayBlockingQueue<>(queueCapacity);
+		this.writer = new Thread(this::writeBatches, "reconciliation-outbox");
+		this.writer.setDaemon(true);
+	}
+
+	public static ReconciliationOutbox open(Path directory, long segmentSize, CardNumberCipher cardNumbers,
+											int queueCapacity) throws IOException {
+		var directoryLock = DirectoryLock.lock(directory);
+		var outbox = new ReconciliationOutbox(directory, directoryLock, segmentSize, cardNumbers, queueCapacity);
+		outbox.recover();
+		outbox.writer.start();
+		return outbox;
+	}
+
+	private void recover() throws IOException {
+		read = readCursor();
+		var segments = segments();
+		segmentNumber = segments.isEmpty() ? Math.max(1, read.segment) : segmentNumber(segments.get(segments.size() - 1));
+		segment = FileChannel.open(segmentPath(segmentNumber), CREATE, READ, WRITE);
+		segment.truncate(validLength(segment));
+		segment.position(segment.size());
+		written = new Position(segmentNumber, segment.size());
+		var position = read;
+		List<Entry> entries;
+		while (!(entries = read(position, 1024)).isEmpty()) {
+			unreconciled.addAndGet(entries.size());
+			position = entries.get(entries.size() - 1).next;
+		}
+		logger.info("Found {} fallback entries which still need to be reconciled.", unreconciled.get());
+	}
+
+	public void append(Entry entry) {
+		if(pending.offer(entry)){
+			unreconciled.incrementAndGet();
+		} else {
+			dropped.incrementAndGet();
+			logger.error("Reconciliation outbox is full. Order {} will not be reconciled.", entry.orderNumber);
+		}
+	}
+
+	private void writeBatches() {
+		var batch = new ArrayList<Entry>();
+		while (running || !pending.isEmpty()) {
+			try {
+				var first = pending.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) continue;
+				batch.add(first);
+				pending.drainTo(batch, 511);
+				for (Entry entry : batch) {
+					write(entry);
+				}
+				segment.force(false);
+				written = new Position(segmentNumber, segment.position());
+				appended.addAndGet(batch.size());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (IOException | RuntimeException e) {
+				logger.error("Could not write {} fallback entries to the outbox.", batch.size(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(Entry entry) throws IOException {
+		var payload = entry.encode(cardNumbers);
+		if(segment.position() > 0 && segment.position() + HEADER_SIZE + payload.remaining() > segmentSize){
+			segment.force(false);
+			segment.close();
+			segmentNumber++;
+			segment = FileChannel.open(segmentPath(segmentNumber), CREATE, READ, WRITE);
+		}
+		var header = ByteBuffer.allocate(HEADER_SIZE).putInt(payload.remaining()).putInt(checksum(payload)).flip();
+		segment.write(new ByteBuffer[]{header, payload});
+	}
+
+	// The next entries after those which were read last, up to what is on disk already.
+	public synchronized List<Entry> next(int max) throws IOException {
+		var entries = read(read, max);
+		if(!entries.isEmpty()){
+			read = entries.get(entries.size() - 1).next;
+		}
+		return entries;
+	}
+
+	// Entries which were read but not acknowledged are read again.
+	public synchronized void rewind() throws IOException {
+		read = readCursor();
+	}
+
+	private List<Entry> read(Position from, int max) throws IOException {
+		var entries = new ArrayList<Entry>(max);
+		var position = from;
+		var end = written;
+		while (entries.size() < max && position.compareTo(end) < 0) {
+			var path = segmentPath(position.segment);
+			if(!Files.exists(path) || position.offset >= Files.size(path)){
+				position = new Position(position.segment + 1, 0);
+				continue;
+			}
+			try (var channel = FileChannel.open(path, READ)) {
+				var header = ByteBuffer.allocate(HEADER_SIZE);
+				while (entries.size() < max && channel.read(header, position.offset) == HEADER_SIZE) {
+					header.flip();
+					var payload = ByteBuffer.allocate(header.getInt());
+					var checksum = header.getInt();
+					header.clear();
+					channel.read(payload, position.offset + HEADER_SIZE);
+					payload.flip();
+					if(checksum != checksum(payload)) break;
+					var next = new Position(position.segment, position.offset + HEADER_SIZE + payload.limit());
+					if(next.compareTo(end) > 0) break;
+					entries.add(Entry.decode(payload, next, cardNumbers));
+					position = next;
+				}
+			}
+			if(entries.size() == max || position.segment == end.segment) break;
+			position = new Position(position.segment + 1, 0);
+		}
+		return entries;
+	}
+
+	public synchronized void acknowledge(List<Entry> entries) throws IOException {
+		if(entries.isEmpty()) return;
+		var cursor = entries.get(entries.size() - 1).next;
+		var temporary = directory.resolve(CURSOR + ".tmp");
+		try (var channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.allocate(2 * Long.BYTES).putLong(cursor.segment).putLong(cursor.offset).flip());
+			channel.force(true);
+		}
+		Files.move(temporary, directory.resolve(CURSOR), ATOMIC_MOVE, REPLACE_EXISTING);
+		for (Path path : segments()) {
+			if(segmentNumber(path) < cursor.segment) Files.deleteIfExists(path);
+		}
+		acknowledged.addAndGet(entries.size());
+		unreconciled.addAndGet(-entries.size());
+	}
+
+	public long unreconciled() {
+		return unreconciled.get();
+	}
+
+	private Position readCursor() throws IOException {
+		var cursor = directory.resolve(CURSOR);
+		if(!Files.exists(cursor)) return new Position(1, 0);
+		var buffer = ByteBuffer.wrap(Files.readAllBytes(cursor));
+		return new Position(buffer.getLong(), buffer.getLong());
+	}
+
+	// Everything behind the first torn entry is dropped, so that new entries follow the last good one.
+	private long validLength(FileChannel channel) throws IOException {
+		long offset = 0;
+		var header = ByteBuffer.allocate(HEADER_SIZE);
+		while (channel.read(header, offset) == HEADER_SIZE) {
+			header.flip();
+			var length = header.getInt();
+			var checksum = header.getInt();
+			header.clear();
+			if(length < 0 || offset + HEADER_SIZE + length > channel.size()) break;
+			var payload = ByteBuffer.allocate(length);
+			channel.read(payload, offset + HEADER_SIZE);
+			if(checksum != checksum(payload.flip())) break;
+			offset += HEADER_SIZE + length;
+		}
+		return offset;
+	}
+
+	private int checksum(ByteBuffer payload) {
+		synchronized (crc) {
+			crc.reset();
+			crc.update(payload.duplicate());
+			return (int) crc.getValue();
+		}
+	}
+
+	private Path segmentPath(long number) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+						.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+						.sorted(Comparator.comparingLong(ReconciliationOutbox::segmentNumber))
+						.collect(Collectors.toList());
+		}
+	}
+
+	private static long segmentNumber(Path segment) {
+		var name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+			segment.close();
+			directoryLock.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.warn("Could not close reconciliation outbox.", e);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("orders.outbox.appended", appended, AtomicLong::get).register(registry);
+		FunctionCounter.builder("orders.outbox.dropped", dropped, AtomicLong::get).register(registry);
+		FunctionCounter.builder("orders.outbox.reconciled", acknowledged, AtomicLong::get).register(registry);
+		Gauge.builder("orders.outbox.unreconciled", unreconciled, AtomicLong::get).register(registry);
+	}
+
+	private static class Position implements Comparable<Position> {
+		private final long segment;
+		private final long offset;
+
+		private Position(long segment, long offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+
+		@Override
+		public int compareTo(Position other) {
+			return segment != other.segment ? Long.compare(segment, other.segment) : Long.compare(offset, other.offset);
+		}
+	}
+
+	public static class Entry {
+		public static final byte CUP = 1;
+		public static final byte CHARGE = 2;
+
+		public final byte kind;
+		public final long orderNumber;
+		public final long id;
+		public final long cents;
+		public final long priceVersion;
+		// The flavor of a cup or the credit card number of a charge. Null for a charge
+		// whose card number cannot be decrypted any more.
+		public final String detail;
+		private final Position next;
+
+		private Entry(byte kind, long orderNumber, long id, long cents, long priceVersion, String detail, Position next) {
+			this.kind = kind;
+			this.orderNumber = orderNumber;
+			this.id = id;
+			this.cents = cents;
+			this.priceVersion = priceVersion;
+			this.detail = detail;
+			this.next = next;
+		}
+
+		public static Entry cup(long orderNumber, long cupId, String flavor) {
+			return new Entry(CUP, orderNumber, cupId, 0L, 0L, flavor, null);
+		}
+
+		public static Entry charge(long orderNumber, long receiptId, long cents, long priceVersion, String creditCardNumber) {
+			return new Entry(CHARGE, orderNumber, receiptId, cents, priceVersion, creditCardNumber, null);
+		}
+
+		private ByteBuffer encode(CardNumberCipher cardNumbers) {
+			var detail = this.detail == null ? new byte[0]
+											 : kind == CHARGE ? cardNumbers.encrypt(this.detail)
+															  : this.detail.getBytes(StandardCharsets.UTF_8);
+			return ByteBuffer.allocate(1 + 4 * Long.BYTES + Short.BYTES + detail.length)
+							 .put(kind)
+							 .putLong(orderNumber)
+							 .putLong(id)
+							 .putLong(cents)
+							 .putShort((short) detail.length)
+							 .put(detail)
+							 .putLong(priceVersion)
+							 .flip();
+		}
+
+		private static Entry decode(ByteBuffer payload, Position next, CardNumberCipher cardNumbers) {
+			var kind = payload.get();
+			var orderNumber = payload.getLong();
+			var id = payload.getLong();
+			var cents = payload.getLong();
+			var detail = new byte[payload.getShort()];
+			payload.get(detail);
+			// Entries written before charges had a price version have none
+			var priceVersion = payload.remaining() >= Long.BYTES ? payload.getLong() : 0L;
+			var decoded = kind == CHARGE ? cardNumbers.decrypt(detail).orElse(null) : new String(detail, StandardCharsets.UTF_8);
+			return new Entry(kind, orderNumber, id, cents, priceVersion, decoded, next);
+		}
+	}
+}
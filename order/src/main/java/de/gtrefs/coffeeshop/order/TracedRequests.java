@@ -0,0 +1,30 @@
+package de.gtrefs.coffeeshop.order;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.common.Span.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+// Calls of other services within a trace get a client span, and the service gets the
+// traceparent header to continue the trace. Calls outside of a trace, e.g. those of the
+// reconciliation, are passed on as they are.
+public class TracedRequests implements ExchangeFilterFunction {
+
+	@Override
+	public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+		return Mono.deferContextual(context -> {
+			var parent = context.<Span>getOrEmpty(Span.class);
+			if(parent.isEmpty()) return next.exchange(request);
+			var span = parent.get().child(request.method() + " " + request.url().getPath(), Kind.CLIENT)
+							 .tag("http.url", request.url());
+			var traced = ClientRequest.from(request).header(Span.TRACEPARENT, span.traceparent()).build();
+			return next.exchange(traced)
+					   .doOnSuccess(response -> {
+						   if(response != null) span.tag("http.status_code", response.rawStatusCode());
+					   })
+					   .doOnError(e -> span.tag("error", e.getClass().getSimpleName()))
+					   .doOnCancel(() -> span.tag("cancelled", true))
+					   .doFinally(signal -> span.end());
+		});
+	}
+}
@@ -0,0 +1,38 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.net.*;
+import java.time.*;
+
+import de.gtrefs.coffeeshop.order.AdaptiveConcurrencyLimit.*;
+import io.micrometer.core.instrument.simple.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimitShould {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("barista", 4, 2, 10, 0.5, Duration.ofSeconds(1), registry);
+	private final ClientRequest request = ClientRequest.create(HttpMethod.POST, URI.create("http://barista:8080/api/coffees")).build();
+
+	@Test
+	public void reject_requests_beyond_the_limit() {
+		for (int i = 0; i < 4; i++) {
+			limit.filter(request, request -> Mono.never()).subscribe();
+		}
+
+		assertThatThrownBy(() -> limit.filter(request, request -> Mono.never()).block())
+				.isInstanceOf(ConcurrencyLimitExceeded.class);
+		assertThat(registry.counter("barista.concurrency.rejected").count()).isEqualTo(1.0);
+	}
+
+	@Test
+	public void lower_the_limit_when_requests_fail() {
+		limit.filter(request, request -> Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build())).block();
+
+		assertThat(registry.get("barista.concurrency.limit").gauge().value()).isEqualTo(2.0);
+	}
+}
@@ -0,0 +1,46 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BaristaFlavorsShould {
+
+	private final FlavorCatalog flavors = new FlavorCatalog(List.of("melange", "black", "espresso"));
+
+	@Test
+	public void offer_what_the_barista_offers() {
+		var barista = barista(HttpStatus.OK, "[\"espresso\", \"melange\", \"cappuccino\"]");
+
+		new BaristaFlavors(barista, flavors, Duration.ofSeconds(10)).refresh().block();
+
+		assertThat(flavors.flavors()).containsExactly("melange", "espresso", "cappuccino");
+		assertThat(flavors.idOf("cappuccino")).isEqualTo(4);
+	}
+
+	@Test
+	public void keep_the_flavors_while_the_barista_cannot_tell() {
+		var barista = barista(HttpStatus.SERVICE_UNAVAILABLE, "{}");
+
+		new BaristaFlavors(barista, flavors, Duration.ofSeconds(10)).refresh().block();
+
+		assertThat(flavors.flavors()).containsExactly("melange", "black", "espresso");
+	}
+
+	private static WebClient barista(HttpStatus status, String body) {
+		return WebClient.builder().baseUrl("http://barista/api/").exchangeFunction(request -> {
+			assertThat(request.url().getPath()).isEqualTo("/api/admin/flavors");
+			return Mono.just(ClientResponse.create(status)
+										   .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+										   .body(body)
+										   .build());
+		}).build();
+	}
+}
@@ -0,0 +1,120 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.math.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BoundedOrderRepositoryShould {
+
+	private final Map<Long, OrderStatus> evicted = new ConcurrentHashMap<>();
+	private final OrderRepository backingRepository = new OrderRepository() {
+		@Override
+		public OrderStatus save(OrderStatus status) {
+			evicted.put(status.order().getOrderNumber(), status);
+			return status;
+		}
+
+		@Override
+		public Optional<OrderStatus> findByOrderNumber(long orderNumber) {
+			return Optional.ofNullable(evicted.get(orderNumber));
+		}
+	};
+
+	private long now = 0;
+
+	@Test
+	public void hand_orders_beyond_its_size_to_the_repository_behind() {
+		var orders = repository(10);
+
+		for (long orderNumber = 1; orderNumber <= 100; orderNumber++) {
+			orders.save(accepted(orderNumber));
+		}
+		orders.cleanUp();
+
+		assertThat(evicted).hasSize(90);
+		for (long orderNumber = 1; orderNumber <= 100; orderNumber++) {
+			assertThat(orders.findByOrderNumber(orderNumber)).hasValueSatisfying(status ->
+					assertThat(status.orderAccepted()).isTrue());
+		}
+	}
+
+	@Test
+	public void retain_pending_orders_longer_than_settled_ones() {
+		var orders = repository(100);
+		orders.save(accepted(1));
+		orders.save(payed(2));
+
+		passes(Duration.ofMinutes(2));
+		orders.cleanUp();
+
+		assertThat(evicted).containsOnlyKeys(2L);
+		assertThat(orders.findByOrderNumber(1)).isPresent();
+
+		passes(Duration.ofMinutes(10));
+		orders.cleanUp();
+
+		assertThat(evicted).containsOnlyKeys(1L, 2L);
+	}
+
+	@Test
+	public void retain_an_order_shorter_once_it_is_settled() {
+		var orders = repository(100);
+		orders.save(accepted(1));
+
+		passes(Duration.ofMinutes(5));
+		orders.cleanUp();
+		orders.save(payed(1));
+		passes(Duration.ofMinutes(2));
+		orders.cleanUp();
+
+		assertThat(evicted).hasEntrySatisfying(1L, status -> assertThat(status.coffeePayed()).isTrue());
+	}
+
+	@Test
+	public void answer_with_the_latest_status_of_an_order_it_still_holds() {
+		var orders = repository(100);
+		evicted.put(1L, accepted(1));
+
+		orders.save(payed(1));
+
+		assertThat(orders.findByOrderNumber(1)).hasValueSatisfying(status -> assertThat(status.coffeePayed()).isTrue());
+	}
+
+	@Test
+	public void ask_the_repository_behind_for_orders_it_does_not_know() {
+		var orders = repository(100);
+
+		assertThat(orders.findByOrderNumber(1)).isEmpty();
+		evicted.put(1L, payed(1));
+		assertThat(orders.findByOrderNumber(1)).isPresent();
+	}
+
+	private BoundedOrderRepository repository(long maximumSize) {
+		return new BoundedOrderRepository(maximumSize, Duration.ofMinutes(10), Duration.ofMinutes(1), backingRepository,
+										  () -> now, Runnable::run);
+	}
+
+	private void passes(Duration duration) {
+		now += duration.toNanos();
+	}
+
+	private static OrderStatus accepted(long orderNumber) {
+		return new OrderAccepted(new Order(orderNumber, "Black", "1234"));
+	}
+
+	private static OrderStatus payed(long orderNumber) {
+		var receipt = new Receipt();
+		receipt.setId(orderNumber);
+		receipt.setBalance(BigDecimal.TEN);
+		var cup = new OrderedCup();
+		cup.setId(orderNumber);
+		cup.setFlavor("Black");
+		return new CoffeePayed(receipt, cup, new Order(orderNumber, "Black", "1234"));
+	}
+}
@@ -0,0 +1,93 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.net.*;
+import java.time.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.order.AdaptiveConcurrencyLimit.*;
+import de.gtrefs.coffeeshop.order.CircuitBreaker.*;
+import io.micrometer.core.instrument.simple.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class CircuitBreakerShould {
+
+	private final List<StateChanged> transitions = new ArrayList<>();
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker("barista", 10, 10, 0.5, 0.8, Duration.ofSeconds(1),
+																	 Duration.ofMillis(50), 2, transitions::add, new SimpleMeterRegistry());
+	private final ClientRequest request = ClientRequest.create(HttpMethod.POST, URI.create("http://barista:8080/api/coffees")).build();
+
+	@Test
+	public void open_when_too_many_requests_fail() {
+		for (int i = 0; i < 10; i++) {
+			send(i % 2 == 0 ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+		assertThatThrownBy(() -> send(HttpStatus.OK)).isInstanceOf(CircuitOpen.class);
+	}
+
+	@Test
+	public void close_again_when_the_probes_succeed() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			send(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		Thread.sleep(60);
+
+		send(HttpStatus.OK);
+		send(HttpStatus.OK);
+
+		assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+		assertThat(transitions).extracting(transition -> transition.to)
+							   .containsExactly(State.OPEN, State.HALF_OPEN, State.CLOSED);
+	}
+
+	@Test
+	public void close_again_even_if_a_probe_was_cancelled() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			send(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		Thread.sleep(60);
+
+		// A lost hedge or a client which went away
+		circuitBreaker.filter(request, request -> Mono.never()).subscribe().dispose();
+		send(HttpStatus.OK);
+		send(HttpStatus.OK);
+
+		assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+	}
+
+	@Test
+	public void stay_closed_while_the_concurrency_limit_rejects() {
+		for (int i = 0; i < 10; i++) {
+			assertThatThrownBy(() -> circuitBreaker.filter(request, request -> Mono.error(new ConcurrencyLimitExceeded("barista", 4))).block())
+					.isInstanceOf(ConcurrencyLimitExceeded.class);
+		}
+
+		assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+		assertThat(transitions).isEmpty();
+	}
+
+	@Test
+	public void keep_probing_while_the_concurrency_limit_rejects_probes() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			send(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		Thread.sleep(60);
+
+		assertThatThrownBy(() -> circuitBreaker.filter(request, request -> Mono.error(new ConcurrencyLimitExceeded("barista", 4))).block())
+				.isInstanceOf(ConcurrencyLimitExceeded.class);
+		send(HttpStatus.OK);
+		send(HttpStatus.OK);
+
+		assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+	}
+
+	private void send(HttpStatus status) {
+		circuitBreaker.filter(request, request -> Mono.just(ClientResponse.create(status).build())).block();
+	}
+}
@@ -0,0 +1,136 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.OrderService.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import io.micrometer.core.instrument.simple.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+import reactor.util.context.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class CupOrderCoalescerShould {
+
+	private final List<ClientRequest> requests = new CopyOnWriteArrayList<>();
+
+	@TempDir
+	Path directory;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void send_a_batch_once_it_is_full() {
+		var coalescer = new CupOrderCoalescer(barista("[{\"id\": 1, \"flavor\": \"black\"}, {\"id\": 2, \"flavor\": \"melange\"}]"),
+											  2, Duration.ofMinutes(1), meterRegistry);
+
+		Mono.zip(coalescer.order(new CupOrder(1L, "black")), coalescer.order(new CupOrder(2L, "melange")))
+			.block(Duration.ofSeconds(1));
+		coalescer.close();
+
+		assertThat(requests).singleElement().satisfies(request ->
+				assertThat(request.url().getPath()).isEqualTo("/api/coffees/batch"));
+		assertThat(meterRegistry.get("barista.coalescer.batch.size").summary().totalAmount()).isEqualTo(2);
+	}
+
+	@Test
+	public void send_a_batch_once_the_window_has_passed() {
+		var coalescer = new CupOrderCoalescer(barista("[{\"id\": 1, \"flavor\": \"black\"}]"),
+											  64, Duration.ofMillis(50), meterRegistry);
+
+		var cup = coalescer.order(new CupOrder(1L, "black")).block(Duration.ofSeconds(1));
+		coalescer.close();
+
+		assertThat(cup.getId()).isEqualTo(1L);
+		assertThat(requests).hasSize(1);
+		assertThat(meterRegistry.get("barista.coalescer.batch.fill").summary().max()).isEqualTo(1.0 / 64);
+	}
+
+	@Test
+	public void hand_every_cup_to_whoever_ordered_it() {
+		var coalescer = new CupOrderCoalescer(barista("[{\"id\": 3, \"flavor\": \"espresso\"}, {\"id\": 1, \"flavor\": \"black\"}," +
+													  " {\"id\": 2, \"flavor\": \"melange\"}]"),
+											  3, Duration.ofMinutes(1), meterRegistry);
+
+		var cups = Mono.zip(coalescer.order(new CupOrder(1L, "black")),
+							coalescer.order(new CupOrder(2L, "melange")),
+							coalescer.order(new CupOrder(3L, "espresso")))
+					   .block(Duration.ofSeconds(1));
+		coalescer.close();
+
+		assertThat(cups.getT1().getFlavor()).isEqualTo("black");
+		assertThat(cups.getT2().getFlavor()).isEqualTo("melange");
+		assertThat(cups.getT3().getFlavor()).isEqualTo("espresso");
+	}
+
+	@Test
+	public void fail_every_cup_of_a_batch_the_barista_rejected() {
+		var coalescer = new CupOrderCoalescer(barista(HttpStatus.SERVICE_UNAVAILABLE, "{}"), 2, Duration.ofMinutes(1), meterRegistry);
+
+		var first = coalescer.order(new CupOrder(1L, "black")).toFuture();
+		var second = coalescer.order(new CupOrder(2L, "melange")).toFuture();
+
+		assertThat(first).failsWithin(Duration.ofSeconds(1)).withThrowableOfType(ExecutionException.class)
+						 .withCauseInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+		assertThat(second).failsWithin(Duration.ofSeconds(1)).withThrowableOfType(ExecutionException.class)
+						  .withCauseInstanceOf(WebClientResponseException.ServiceUnavailable.class);
+		coalescer.close();
+	}
+
+	@Test
+	public void fail_a_cup_the_barista_did_not_answer() {
+		var coalescer = new CupOrderCoalescer(barista("[{\"id\": 2, \"flavor\": \"melange\"}]"), 2, Duration.ofMinutes(1), meterRegistry);
+
+		var first = coalescer.order(new CupOrder(1L, "black")).toFuture();
+		var second = coalescer.order(new CupOrder(2L, "melange")).toFuture();
+
+		assertThat(first).failsWithin(Duration.ofSeconds(1)).withThrowableOfType(ExecutionException.class)
+						 .withCauseInstanceOf(IllegalStateException.class);
+		assertThat(second).succeedsWithin(Duration.ofSeconds(1)).extracting(OrderedCup::getFlavor).isEqualTo("melange");
+		coalescer.close();
+	}
+
+	@Test
+	public void send_a_batch_within_the_trace_of_one_of_its_cups() throws Exception {
+		var spans = SpanFile.open(directory.resolve("spans.json"), 1024 * 1024, 16);
+		var tracer = new Tracer("order", 10, spans);
+		var first = tracer.serverSpan("POST", null);
+		var second = tracer.serverSpan("POST", null);
+		var coalescer = new CupOrderCoalescer(barista("[{\"id\": 1, \"flavor\": \"black\"}, {\"id\": 2, \"flavor\": \"melange\"}]"),
+											  2, Duration.ofSeconds(1), meterRegistry);
+
+		Mono.zip(coalescer.order(new CupOrder(1L, "black")).contextWrite(Context.of(Span.class, first)),
+				 coalescer.order(new CupOrder(2L, "melange")).contextWrite(Context.of(Span.class, second)))
+			.block(Duration.ofSeconds(1));
+		coalescer.close();
+		spans.close();
+
+		assertThat(requests).singleElement().satisfies(request ->
+				assertThat(request.headers().getFirst(Span.TRACEPARENT)).contains(first.traceId()));
+		assertThat(Files.readAllLines(directory.resolve("spans.json")))
+				.anySatisfy(span -> assertThat(span).contains(second.traceId(), "\"name\":\"coalesce\"",
+															  "\"batch.trace_id\":\"" + first.traceId() + "\""));
+	}
+
+	private WebClient barista(String cups) {
+		return barista(HttpStatus.OK, cups);
+	}
+
+	private WebClient barista(HttpStatus status, String cups) {
+		return WebClient.builder().baseUrl("http://barista/api/").filter(new TracedRequests()).exchangeFunction(request -> {
+			requests.add(request);
+			return Mono.just(ClientResponse.create(status)
+										   .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+										   .body(cups)
+										   .build());
+		}).build();
+	}
+}
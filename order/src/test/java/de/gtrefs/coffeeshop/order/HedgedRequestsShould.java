@@ -0,0 +1,84 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import io.micrometer.core.instrument.simple.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class HedgedRequestsShould {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final AtomicInteger sent = new AtomicInteger();
+
+	@Test
+	public void take_the_answer_of_the_second_request_if_the_first_one_is_slow() {
+		var hedged = new HedgedRequests("barista", 0.95, Duration.ofMillis(10), Duration.ofMillis(1), 100, registry);
+
+		var answer = hedged.send(() -> sent.incrementAndGet() == 1 ? Mono.never() : Mono.just("second")).block(Duration.ofSeconds(1));
+
+		assertThat(answer).isEqualTo("second");
+		assertThat(registry.counter("barista.hedges.won").count()).isEqualTo(1.0);
+	}
+
+	@Test
+	public void count_the_time_of_a_request_which_lost_until_it_was_cancelled() {
+		var hedged = new HedgedRequests("barista", 0.95, Duration.ofMillis(50), Duration.ofMillis(1), 100, registry);
+
+		hedged.send(() -> sent.incrementAndGet() == 1 ? Mono.never() : Mono.just("second")).block(Duration.ofSeconds(1));
+
+		var latency = registry.timer("barista.latency");
+		assertThat(latency.count()).isEqualTo(2);
+		assertThat(latency.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(50);
+	}
+
+	@Test
+	public void send_the_second_request_to_another_endpoint() {
+		var endpoints = new LoadBalancedEndpoints("barista", List.of("http://first:8080", "http://second:8080"), 3,
+												  Duration.ofMinutes(1), 3, registry);
+		var hosts = new CopyOnWriteArrayList<String>();
+		var barista = WebClient.builder().baseUrl("http://first:8080/api/").filter(endpoints).exchangeFunction(request -> {
+			hosts.add(request.url().getHost());
+			return hosts.size() == 1 ? Mono.never() : Mono.just(ClientResponse.create(HttpStatus.OK).body("second").build());
+		}).build();
+		var hedged = new HedgedRequests("barista", 0.95, Duration.ofMillis(10), Duration.ofMillis(1), 100, registry);
+
+		for (int i = 0; i < 20; i++) {
+			hosts.clear();
+			hedged.send(() -> barista.get().uri("coffees/1").retrieve().bodyToMono(String.class)).block(Duration.ofSeconds(1));
+
+			assertThat(hosts).doesNotHaveDuplicates().hasSize(2);
+		}
+	}
+
+	@Test
+	public void report_the_failure_of_the_first_request_without_hedging() {
+		var hedged = new HedgedRequests("barista", 0.95, Duration.ofMillis(50), Duration.ofMillis(1), 100, registry);
+
+		var answer = hedged.send(() -> {
+			sent.incrementAndGet();
+			return Mono.<String>error(new IllegalStateException("rejected"));
+		});
+
+		assertThatThrownBy(() -> answer.block(Duration.ofSeconds(1))).isInstanceOf(IllegalStateException.class);
+		assertThat(sent).hasValue(1);
+	}
+
+	@Test
+	public void not_hedge_beyond_the_budget() {
+		var hedged = new HedgedRequests("barista", 0.95, Duration.ofMillis(1), Duration.ofMillis(1), 5, registry);
+
+		for (int i = 0; i < 100; i++) {
+			hedged.send(() -> Mono.just("slow").delayElement(Duration.ofMillis(5))).block(Duration.ofSeconds(1));
+		}
+
+		assertThat(registry.counter("barista.hedges.fired").count()).isLessThanOrEqualTo(5.0);
+	}
+}
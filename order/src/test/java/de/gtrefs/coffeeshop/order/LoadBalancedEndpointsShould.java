@@ -0,0 +1,62 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.net.*;
+import java.time.*;
+import java.util.*;
+
+import io.micrometer.core.instrument.simple.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LoadBalancedEndpointsShould {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final LoadBalancedEndpoints endpoints = new LoadBalancedEndpoints(
+			"barista", List.of("http://first:8080", "http://second:8080"), 3, Duration.ofMinutes(1), 3, registry);
+	private final Map<String, Integer> requestsByHost = new HashMap<>();
+
+	@Test
+	public void send_requests_to_all_endpoints() {
+		for (int i = 0; i < 100; i++) {
+			send(HttpStatus.OK);
+		}
+
+		assertThat(requestsByHost).containsOnlyKeys("first", "second");
+	}
+
+	@Test
+	public void eject_an_endpoint_which_keeps_failing() {
+		for (int i = 0; i < 100; i++) {
+			send(HttpStatus.OK);
+		}
+		requestsByHost.clear();
+
+		for (int i = 0; i < 100; i++) {
+			endpoints.filter(request("/api/coffees"), request -> respond(request, request.url().getHost().equals("first") ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK)).block();
+		}
+		requestsByHost.clear();
+		for (int i = 0; i < 100; i++) {
+			send(HttpStatus.OK);
+		}
+
+		assertThat(requestsByHost).containsOnlyKeys("second");
+		assertThat(registry.counter("barista.endpoint.ejections", "endpoint", "first:8080").count()).isEqualTo(1.0);
+	}
+
+	private void send(HttpStatus status) {
+		endpoints.filter(request("/api/coffees"), request -> respond(request, status)).block();
+	}
+
+	private Mono<ClientResponse> respond(ClientRequest request, HttpStatus status) {
+		requestsByHost.merge(request.url().getHost(), 1, Integer::sum);
+		return Mono.just(ClientResponse.create(status).build());
+	}
+
+	private static ClientRequest request(String path) {
+		return ClientRequest.create(HttpMethod.POST, URI.create("http://first:8080" + path)).build();
+	}
+}
@@ -0,0 +1,77 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.math.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import org.junit.jupiter.api.*;
+
+import static de.gtrefs.coffeeshop.order.OrderStatus.OrderNotPossible.Reason.*;
+import static org.assertj.core.api.Assertions.*;
+
+public class OffHeapOrderIndexShould {
+
+	private final FlavorCatalog flavors = new FlavorCatalog(List.of("melange", "black", "espresso", "ristretto", "cappuccino"));
+
+	@Test
+	public void return_what_was_saved(){
+		var index = new OffHeapOrderIndex(16, flavors);
+		var order = new Order(42L, "Black", "1234");
+		var cup = new OrderedCup();
+		cup.setId(7L);
+		cup.setFlavor("Black");
+		var receipt = new Receipt();
+		receipt.setId(3L);
+		receipt.setBalance(new BigDecimal("7.65"));
+
+		index.save(new CoffeePayed(receipt, cup, order));
+
+		var status = index.findByOrderNumber(42L).orElseThrow();
+		assertThat(status.coffeePayed()).isTrue();
+		var payed = (CoffeePayed) status;
+		assertThat(payed.order.getOrderNumber()).isEqualTo(42L);
+		assertThat(payed.order.getFlavor()).isEqualTo("black");
+		assertThat(payed.cup.getId()).isEqualTo(7L);
+		assertThat(payed.receipt.getId()).isEqualTo(3L);
+		assertThat(payed.receipt.getBalance()).isEqualByComparingTo("7.65");
+	}
+
+	@Test
+	public void keep_the_flavor_of_an_order_when_it_is_withdrawn(){
+		var index = new OffHeapOrderIndex(16, flavors);
+		var order = new Order(42L, "Ristretto", "1234");
+		var cup = new OrderedCup();
+		cup.setId(7L);
+		cup.setFlavor("Ristretto");
+
+		flavors.offer(List.of("melange", "black", "espresso", "cappuccino"));
+		index.save(new CoffeeOrdered(order, cup));
+
+		assertThat(index.findByOrderNumber(42L).orElseThrow().order().getFlavor()).isEqualTo("ristretto");
+	}
+
+	@Test
+	public void keep_the_latest_status_of_an_order(){
+		var index = new OffHeapOrderIndex(16, flavors);
+		var order = new Order(1L, "Melange", "1234");
+
+		index.save(new OrderAccepted(order));
+		index.save(new OrderNotPossible(order, new ErrorResponse("INSUFFICIENT_FUNDS", null), INSUFFICIENT_FUNDS));
+
+		var status = index.findByOrderNumber(1L).orElseThrow();
+		assertThat(status.orderNotPossible()).isTrue();
+		assertThat(((OrderNotPossible) status).reason).isEqualTo(INSUFFICIENT_FUNDS);
+	}
+
+	@Test
+	public void overwrite_the_oldest_orders_when_full(){
+		var index = new OffHeapOrderIndex(16, flavors);
+		for (long orderNumber = 1; orderNumber <= 1000; orderNumber++) {
+			index.save(new OrderAccepted(new Order(orderNumber, "Espresso", "1234")));
+		}
+
+		assertThat(index.findByOrderNumber(1000L)).isPresent();
+		assertThat(index.findByOrderNumber(1L)).isEmpty();
+	}
+}
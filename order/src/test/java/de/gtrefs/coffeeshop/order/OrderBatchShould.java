@@ -0,0 +1,169 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+import com.fasterxml.jackson.databind.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.context.annotation.*;
+import org.springframework.http.*;
+import org.springframework.http.codec.*;
+import org.springframework.mock.http.client.reactive.*;
+import org.springframework.test.context.*;
+import org.springframework.test.web.reactive.server.*;
+import org.springframework.web.reactive.function.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class OrderBatchShould {
+
+	private static final String CUP = "{\"id\": 382949602021949440, \"flavor\": \"black\"}";
+	private static final String RECEIPT = "{\"id\": 382949602026143744, \"balance\": 7.65}";
+	private static final String FLAVORS = "[\"melange\", \"black\", \"espresso\", \"ristretto\", \"cappuccino\"]";
+	private static final String NOT_OFFERED = "{\"message\": \"BAD_REQUEST\", \"details\": [\"We don't offer this flavor.\"]}";
+
+	// The journal and outbox directories are locked by the service, other tests start one as well
+	@TempDir
+	static Path directory;
+
+	@DynamicPropertySource
+	static void directories(DynamicPropertyRegistry properties) {
+		properties.add("coffeeshop.order.journal.directory", () -> directory.resolve("journal").toString());
+		properties.add("coffeeshop.order.reconciliation.directory", () -> directory.resolve("outbox").toString());
+		properties.add("coffeeshop.barista.coalescing.enabled", () -> "false");
+		properties.add("coffeeshop.barista.hedging.enabled", () -> "false");
+	}
+
+	@Autowired
+	private WebTestClient orderService;
+
+	private final ObjectMapper json = new ObjectMapper();
+
+	@Test
+	public void answer_every_order_in_the_order_they_came_in() throws Exception {
+		var orders = "[{\"flavor\": \"black\", \"creditCardNumber\": \"1234\"}," +
+					 " {\"flavor\": \"espresso\", \"creditCardNumber\": \"1234\"}," +
+					 " {\"flavor\": \"black\", \"creditCardNumber\": \"1234\"}]";
+
+		var statuses = orderService.post().uri("/api/orders/batch")
+								   .contentType(MediaType.APPLICATION_JSON)
+								   .accept(MediaType.APPLICATION_NDJSON)
+								   .bodyValue(orders)
+								   .exchange()
+								   .expectStatus().isOk()
+								   .returnResult(String.class)
+								   .getResponseBody()
+								   .map(this::parse)
+								   .collectList()
+								   .block();
+
+		assertThat(statuses).extracting(status -> status.at("/order/flavor").asText())
+							.containsExactly("black", "espresso", "black");
+		assertThat(statuses.get(0).has("receipt")).isTrue();
+		assertThat(statuses.get(1).at("/reason").asText()).isEqualTo("NONE");
+		assertThat(statuses.get(2).has("receipt")).isTrue();
+	}
+
+	@Test
+	public void remember_that_an_order_of_a_batch_failed() throws Exception {
+		var failed = orderService.post().uri("/api/orders/batch")
+								 .contentType(MediaType.APPLICATION_JSON)
+								 .accept(MediaType.APPLICATION_NDJSON)
+								 .bodyValue("[{\"flavor\": \"espresso\", \"creditCardNumber\": \"1234\"}]")
+								 .exchange()
+								 .returnResult(String.class)
+								 .getResponseBody()
+								 .map(this::parse)
+								 .blockFirst();
+
+		var orderNumber = failed.at("/order/orderNumber").asLong();
+		orderService.get().uri("/api/order/{id}", orderNumber)
+					.exchange()
+					.expectStatus().isOk()
+					.expectBody()
+					.jsonPath("$.reason").isEqualTo("NONE")
+					.jsonPath("$.order.orderNumber").isEqualTo(orderNumber);
+	}
+
+	@Test
+	public void let_the_customer_pay_by_cash_if_charging_hangs() {
+		var started = System.nanoTime();
+
+		var status = orderService.post().uri("/api/orders/batch")
+								 .contentType(MediaType.APPLICATION_JSON)
+								 .accept(MediaType.APPLICATION_NDJSON)
+								 .bodyValue("[{\"flavor\": \"black\", \"creditCardNumber\": \"0000\"}]")
+								 .exchange()
+								 .returnResult(String.class)
+								 .getResponseBody()
+								 .map(this::parse)
+								 .blockFirst();
+
+		assertThat(status.has("receipt")).isTrue();
+		assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(2));
+	}
+
+	private JsonNode parse(String status) {
+		try {
+			return json.readTree(status);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// The barista does not brew espresso today, everything else is brewed and payed right away.
+	// Charges of card 0000 hang.
+	@TestConfiguration
+	static class BaristaAndPaymentProvider {
+
+		@Bean
+		WebClient.Builder stubbedWebClient() {
+			return WebClient.builder().exchangeFunction(BaristaAndPaymentProvider::answer);
+		}
+
+		private static Mono<ClientResponse> answer(ClientRequest request) {
+			var path = request.url().getPath();
+			if(path.endsWith("/flavors")) return respond(HttpStatus.OK, FLAVORS);
+			if(path.endsWith("/charge")){
+				return body(request).flatMap(charge -> charge.contains("\"0000\"") ? Mono.never() : respond(HttpStatus.OK, RECEIPT));
+			}
+			return body(request).flatMap(cup -> cup.contains("espresso") ? respond(HttpStatus.BAD_REQUEST, NOT_OFFERED)
+																		  : respond(HttpStatus.OK, CUP));
+		}
+
+		private static Mono<String> body(ClientRequest request) {
+			var body = new MockClientHttpRequest(request.method(), request.url());
+			return request.body().insert(body, new BodyInserter.Context() {
+				@Override
+				public List<HttpMessageWriter<?>> messageWriters() {
+					return ExchangeStrategies.withDefaults().messageWriters();
+				}
+
+				@Override
+				public Optional<org.springframework.http.server.reactive.ServerHttpRequest> serverRequest() {
+					return Optional.empty();
+				}
+
+				@Override
+				public Map<String, Object> hints() {
+					return Map.of();
+				}
+			}).then(Mono.defer(body::getBodyAsString));
+		}
+
+		private static Mono<ClientResponse> respond(HttpStatus status, String body) {
+			return Mono.just(ClientResponse.create(status)
+										   .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+										   .body(body)
+										   .build());
+		}
+	}
+}
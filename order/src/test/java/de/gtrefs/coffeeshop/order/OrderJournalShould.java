@@ -0,0 +1,58 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import de.gtrefs.coffeeshop.order.OrderStatus.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class OrderJournalShould {
+
+	private final FlavorCatalog flavors = new FlavorCatalog(List.of("melange", "black", "espresso", "ristretto", "cappuccino"));
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void restore_orders_after_a_restart() throws IOException {
+		var journal = OrderJournal.open(directory, 4096, 16, 64, 1024, new OffHeapOrderIndex(1024, flavors), flavors);
+		for (long orderNumber = 1; orderNumber <= 200; orderNumber++) {
+			var order = new Order(orderNumber, "Ristretto", "1234");
+			journal.append(new OrderAccepted(order));
+			var cup = new OrderedCup();
+			cup.setId(orderNumber);
+			journal.append(new CoffeeOrdered(order, cup));
+		}
+		journal.close();
+
+		var index = new OffHeapOrderIndex(1024, flavors);
+		var restarted = OrderJournal.open(directory, 4096, 16, 64, 1024, index, flavors);
+
+		assertThat(restarted.highestOrderNumber()).isEqualTo(200L);
+		var status = index.findByOrderNumber(100L).orElseThrow();
+		assertThat(status.coffeeOrdered()).isTrue();
+		assertThat(((CoffeeOrdered) status).cup.getId()).isEqualTo(100L);
+		restarted.close();
+	}
+
+	@Test
+	public void decode_flavors_offered_before_a_restart() throws IOException {
+		var journal = OrderJournal.open(directory, 4096, 16, 64, 1024, new OffHeapOrderIndex(1024, flavors), flavors);
+		flavors.offer(List.of("melange", "black", "espresso", "ristretto", "cappuccino", "Flat White"));
+		journal.append(new OrderAccepted(new Order(1L, "flat white", "1234")));
+		journal.append(new OrderAccepted(new Order(2L, "Ristretto", "1234")));
+		journal.close();
+
+		var reordered = new FlavorCatalog(OrderJournal.knownFlavors(directory), List.of("espresso", "melange"));
+		var index = new OffHeapOrderIndex(1024, reordered);
+		OrderJournal.open(directory, 4096, 16, 64, 1024, index, reordered).close();
+
+		assertThat(index.findByOrderNumber(1L).orElseThrow().order().getFlavor()).isEqualTo("Flat White");
+		assertThat(index.findByOrderNumber(2L).orElseThrow().order().getFlavor()).isEqualTo("ristretto");
+	}
+}
@@ -0,0 +1,86 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.math.*;
+import java.nio.file.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class PricesShould {
+
+	@TempDir
+	Path directory;
+
+	private final FlavorCatalog flavors = new FlavorCatalog(List.of("melange", "black", "espresso"));
+
+	@Test
+	public void charge_the_latest_prices_with_their_version() throws IOException {
+		var prices = Prices.of(Prices.parse("{\"melange\": \"5.00\", \"black\": \"2.35\"}"), flavors);
+		var firstVersion = prices.version();
+
+		var secondVersion = prices.update(Map.of("Melange", new BigDecimal("5.50")));
+
+		var melange = prices.forOrder(new Order(1L, "MELANGE", "1234")).orElseThrow();
+		assertThat(melange.price).isEqualByComparingTo("5.50");
+		assertThat(melange.version).isEqualTo(secondVersion).isGreaterThan(firstVersion);
+		assertThat(prices.forOrder(new Order(2L, "black", "1234"))).isEmpty();
+	}
+
+	@Test
+	public void price_flavors_which_are_offered_later() {
+		var prices = Prices.of(Map.of("cappuccino", new BigDecimal("3.25")), flavors);
+
+		flavors.offer(List.of("melange", "black", "espresso", "Cappuccino"));
+
+		var cappuccino = prices.forOrder(new Order(1L, "cappuccino", "1234")).orElseThrow();
+		assertThat(cappuccino.price).isEqualByComparingTo("3.25");
+		assertThat(cappuccino.version).isEqualTo(prices.version());
+	}
+
+	@Test
+	public void price_flavors_which_are_offered_again() {
+		flavors.offer(List.of("melange", "black"));
+		var prices = Prices.of(Map.of("espresso", new BigDecimal("1.90")), flavors);
+
+		flavors.offer(List.of("melange", "black", "espresso"));
+
+		assertThat(prices.forOrder(new Order(1L, "espresso", "1234")).orElseThrow().price).isEqualByComparingTo("1.90");
+	}
+
+	@Test
+	public void keep_the_prices_if_one_is_not_positive() {
+		var prices = Prices.of(Map.of("black", new BigDecimal("2.35")), flavors);
+		var version = prices.version();
+
+		assertThatThrownBy(() -> prices.update(Map.of("black", new BigDecimal("-2.35")))).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> prices.update(Map.of("black", BigDecimal.ZERO))).isInstanceOf(IllegalArgumentException.class);
+
+		assertThat(prices.version()).isEqualTo(version);
+		assertThat(prices.forOrder(new Order(1L, "black", "1234")).orElseThrow().price).isEqualByComparingTo("2.35");
+	}
+
+	@Test
+	public void follow_the_prices_file() throws Exception {
+		var file = directory.resolve("prices.json");
+		Files.writeString(file, "{\"black\": \"2.35\"}");
+		var prices = Prices.of(Map.of(), flavors);
+		var black = new Order(1L, "black", "1234");
+
+		try (var pricesFile = PricesFile.watch(file, prices)) {
+			assertThat(prices.forOrder(black).orElseThrow().price).isEqualByComparingTo("2.35");
+
+			Files.writeString(file, "{\"black\": \"2.50\"}");
+
+			var deadline = System.nanoTime() + 10_000_000_000L;
+			while (prices.forOrder(black).orElseThrow().price.compareTo(new BigDecimal("2.50")) != 0 && System.nanoTime() < deadline) {
+				Thread.sleep(20);
+			}
+			assertThat(prices.forOrder(black).orElseThrow().price).isEqualByComparingTo("2.50");
+		}
+	}
+}
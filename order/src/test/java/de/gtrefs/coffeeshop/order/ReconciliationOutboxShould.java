@@ -0,0 +1,66 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import de.gtrefs.coffeeshop.order.ReconciliationOutbox.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ReconciliationOutboxShould {
+
+	@TempDir
+	Path directory;
+
+	private final CardNumberCipher cardNumbers = CardNumberCipher.withRandomKey();
+
+	@Test
+	public void keep_entries_which_were_not_acknowledged_across_restarts() throws IOException, InterruptedException {
+		var outbox = ReconciliationOutbox.open(directory, 256, cardNumbers, 1024);
+		for (long orderNumber = 1; orderNumber <= 20; orderNumber++) {
+			outbox.append(Entry.cup(orderNumber, orderNumber, "Ristretto"));
+		}
+		var reconciled = new ArrayList<Entry>();
+		while (reconciled.size() < 10) {
+			reconciled.addAll(outbox.next(10 - reconciled.size()));
+			Thread.sleep(10);
+		}
+		outbox.acknowledge(reconciled);
+		outbox.close();
+
+		var restarted = ReconciliationOutbox.open(directory, 256, cardNumbers, 1024);
+
+		assertThat(restarted.unreconciled()).isEqualTo(10L);
+		assertThat(restarted.next(100)).extracting(entry -> entry.orderNumber)
+									   .containsExactly(11L, 12L, 13L, 14L, 15L, 16L, 17L, 18L, 19L, 20L);
+		restarted.close();
+	}
+
+	@Test
+	public void keep_card_numbers_only_encrypted() throws IOException, InterruptedException {
+		var outbox = ReconciliationOutbox.open(directory, 1024, cardNumbers, 1024);
+		outbox.append(Entry.charge(1L, 1L, 250, 1L, "4111111111111111"));
+		while (outbox.next(1).isEmpty()) {
+			Thread.sleep(10);
+		}
+		outbox.close();
+
+		var onDisk = new StringBuilder();
+		try (var files = Files.newDirectoryStream(directory, "*.log")) {
+			for (Path file : files) {
+				onDisk.append(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+			}
+		}
+		assertThat(onDisk).isNotEmpty().doesNotContain("4111111111111111");
+		var restarted = ReconciliationOutbox.open(directory, 1024, cardNumbers, 1024);
+		assertThat(restarted.next(1)).singleElement().satisfies(entry -> assertThat(entry.detail).isEqualTo("4111111111111111"));
+		restarted.close();
+		var otherKey = ReconciliationOutbox.open(directory, 1024, CardNumberCipher.withRandomKey(), 1024);
+		assertThat(otherKey.next(1)).singleElement().satisfies(entry -> assertThat(entry.detail).isNull());
+		otherKey.close();
+	}
+}
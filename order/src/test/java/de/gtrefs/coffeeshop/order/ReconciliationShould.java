@@ -0,0 +1,124 @@
+package de.gtrefs.coffeeshop.order;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import de.gtrefs.coffeeshop.order.ReconciliationOutbox.*;
+import io.micrometer.core.instrument.simple.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+import org.springframework.http.*;
+import org.springframework.http.codec.*;
+import org.springframework.mock.http.client.reactive.*;
+import org.springframework.web.reactive.function.*;
+import org.springframework.web.reactive.function.client.*;
+import reactor.core.publisher.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ReconciliationShould {
+
+	private final List<String> batches = new CopyOnWriteArrayList<>();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@TempDir
+	Path directory;
+
+	private ReconciliationOutbox outbox;
+
+	@BeforeEach
+	public void openOutbox() throws IOException {
+		outbox = ReconciliationOutbox.open(directory, 1024 * 1024, CardNumberCipher.withRandomKey(), 1024);
+	}
+
+	@AfterEach
+	public void closeOutbox() {
+		outbox.close();
+	}
+
+	@Test
+	public void skip_cups_the_barista_rejects() throws Exception {
+		append(Entry.cup(1L, 1L, "Ristretto"),
+			   Entry.cup(2L, 2L, "Withdrawn"),
+			   Entry.cup(3L, 3L, "Ristretto"),
+			   Entry.charge(3L, 3L, 250, 1L, "1234"));
+
+		reconciliation(barista(HttpStatus.OK)).reconcileNextBatch().block(Duration.ofSeconds(5));
+
+		assertThat(outbox.unreconciled()).isZero();
+		assertThat(meterRegistry.get("orders.reconciliation.rejected").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("orders.reconciliation.cups").counter().count()).isEqualTo(2);
+		assertThat(meterRegistry.get("orders.reconciliation.charges").counter().count()).isEqualTo(1);
+		assertThat(batches).hasSize(4);
+	}
+
+	@Test
+	public void keep_the_batch_while_the_barista_is_unavailable() throws Exception {
+		append(Entry.cup(1L, 1L, "Ristretto"), Entry.cup(2L, 2L, "Ristretto"));
+
+		reconciliation(barista(HttpStatus.SERVICE_UNAVAILABLE)).reconcileNextBatch().block(Duration.ofSeconds(5));
+
+		assertThat(outbox.unreconciled()).isEqualTo(2L);
+		assertThat(outbox.next(10)).extracting(entry -> entry.orderNumber).containsExactly(1L, 2L);
+		assertThat(batches).hasSize(1);
+	}
+
+	private void append(Entry... entries) throws IOException, InterruptedException {
+		for (Entry entry : entries) {
+			outbox.append(entry);
+		}
+		// Wait until the writer put them on disk
+		var written = 0;
+		while (written < entries.length) {
+			written += outbox.next(entries.length).size();
+			Thread.sleep(10);
+		}
+		outbox.rewind();
+	}
+
+	private Reconciliation reconciliation(WebClient barista) {
+		var paymentProvider = WebClient.builder().baseUrl("http://payment/").exchangeFunction(request ->
+				respond(HttpStatus.OK, "{\"id\": 1, \"balance\": 0}")).build();
+		return new Reconciliation(outbox, barista, paymentProvider, 10, Duration.ofMinutes(1), meterRegistry);
+	}
+
+	// Rejects every batch with a withdrawn flavor in it, like the coffee service does.
+	private WebClient barista(HttpStatus status) {
+		return WebClient.builder().baseUrl("http://barista/api/").exchangeFunction(request -> body(request).flatMap(cups -> {
+			batches.add(cups);
+			if(status.isError()) return respond(status, "{}");
+			if(cups.contains("Withdrawn")) return respond(HttpStatus.BAD_REQUEST, "{\"message\": \"Withdrawn is not offered\"}");
+			return respond(HttpStatus.OK, cups);
+		})).build();
+	}
+
+	private static Mono<String> body(ClientRequest request) {
+		var body = new MockClientHttpRequest(request.method(), request.url());
+		return request.body().insert(body, new BodyInserter.Context() {
+			@Override
+			public List<HttpMessageWriter<?>> messageWriters() {
+				return ExchangeStrategies.withDefaults().messageWriters();
+			}
+
+			@Override
+			public Optional<org.springframework.http.server.reactive.ServerHttpRequest> serverRequest() {
+				return Optional.empty();
+			}
+
+			@Override
+			public Map<String, Object> hints() {
+				return Map.of();
+			}
+		}).then(Mono.defer(body::getBodyAsString));
+	}
+
+	private static Mono<ClientResponse> respond(HttpStatus status, String body) {
+		return Mono.just(ClientResponse.create(status)
+									   .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+									   .body(body)
+									   .build());
+	}
+}
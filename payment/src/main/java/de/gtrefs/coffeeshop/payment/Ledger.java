@@ -0,0 +1,162 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.*;
+
+// Balances in cents by card token. Cards are spread over stripes, each with
+// its own lock and its own open addressing table of primitive longs, so that
+// charges to different cards rarely wait for each other and nothing is boxed.
+//
+// How long charges wait for their stripe is summed up, so that too few stripes show.
+public class Ledger implements MeterBinder {
+
+	// Taking a lock nobody holds is faster than this
+	private static final long CONTENDED_NANOS = 1_000;
+
+	public static final long INSUFFICIENT_FUNDS = Long.MIN_VALUE;
+
+	private final Stripe[] stripes;
+	private final long startBalance;
+	private final long overdraftLimit;
+	private volatile Entries entries = (token, balance, transaction) -> {};
+	private final LongAdder charges = new LongAdder();
+	private final LongAdder lockWaitNanos = new LongAdder();
+	private final LongAdder contended = new LongAdder();
+
+	public Ledger(int stripes, long startBalance, long overdraftLimit) {
+		this.stripes = new Stripe[Integer.highestOneBit(Math.max(1, stripes - 1) << 1)];
+		for (int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.startBalance = startBalance;
+		this.overdraftLimit = overdraftLimit;
+	}
+
+	// Entries are recorded while the card is still locked, so that they are
+	// recorded in the same order as they were made. A charge whose entry
+	// cannot be recorded fails and leaves the balance as it was.
+	public void recordTo(Entries entries) {
+		this.entries = entries;
+	}
+
+	// Returns the new balance or INSUFFICIENT_FUNDS if the charge would
+	// take the balance to the overdraft limit or below.
+	public long charge(long token, long cents, long transaction) {
+		var stripe = stripeOf(token);
+		long waiting = System.nanoTime();
+		synchronized (stripe) {
+			waited(System.nanoTime() - waiting);
+			int slot = stripe.slotOf(token);
+			long balance = stripe.used[slot] ? stripe.balances[slot] : startBalance;
+			long charged = balance - cents;
+			if(charged <= -overdraftLimit){
+				return INSUFFICIENT_FUNDS;
+			}
+			entries.record(token, charged, transaction);
+			stripe.put(slot, token, charged);
+			return charged;
+		}
+	}
+
+	private void waited(long nanos) {
+		charges.increment();
+		lockWaitNanos.add(nanos);
+		if(nanos > CONTENDED_NANOS) contended.increment();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionTimer.builder("payment.ledger.lock.wait", this, ledger -> ledger.charges.sum(),
+							  ledger -> ledger.lockWaitNanos.sum(), TimeUnit.NANOSECONDS)
+					 .description("Time charges waited for the stripe of their card")
+					 .register(registry);
+		FunctionCounter.builder("payment.ledger.lock.contended", this, ledger -> ledger.contended.sum())
+					   .description("Charges which found the stripe of their card locked")
+					   .register(registry);
+	}
+
+	public long balance(long token) {
+		var stripe = stripeOf(token);
+		synchronized (stripe) {
+			int slot = stripe.slotOf(token);
+			return stripe.used[slot] ? stripe.balances[slot] : startBalance;
+		}
+	}
+
+	// Sets a balance as it is, e.g. when recovering from a snapshot.
+	public void restore(long token, long balance) {
+		var stripe = stripeOf(token);
+		synchronized (stripe) {
+			stripe.put(stripe.slotOf(token), token, balance);
+		}
+	}
+
+	public void forEach(Entries balances) {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				for (int slot = 0; slot < stripe.tokens.length; slot++) {
+					if(stripe.used[slot]){
+						balances.record(stripe.tokens[slot], stripe.balances[slot], 0L);
+					}
+				}
+			}
+		}
+	}
+
+	private Stripe stripeOf(long token) {
+		return stripes[(int) (token >>> 40) & (stripes.length - 1)];
+	}
+
+	public interface Entries {
+		void record(long token, long balance, long transaction);
+	}
+
+	private static class Stripe {
+		private long[] tokens = new long[16];
+		private long[] balances = new long[16];
+		private boolean[] used = new boolean[16];
+		private int size;
+
+		private int slotOf(long token) {
+			int mask = tokens.length - 1;
+			int slot = (int) token & mask;
+			while (used[slot] && tokens[slot] != token) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void put(int slot, long token, long balance) {
+			if(used[slot]){
+				balances[slot] = balance;
+				return;
+			}
+			tokens[slot] = token;
+			balances[slot] = balance;
+			used[slot] = true;
+			if(++size > tokens.length * 3 / 4){
+				grow();
+			}
+		}
+
+		private void grow() {
+			var oldTokens = tokens;
+			var oldBalances = balances;
+			var oldUsed = used;
+			tokens = new long[oldTokens.length * 2];
+			balances = new long[oldTokens.length * 2];
+			used = new boolean[oldTokens.length * 2];
+			for (int i = 0; i < oldTokens.length; i++) {
+				if(oldUsed[i]){
+					int slot = slotOf(oldTokens[i]);
+					tokens[slot] = oldTokens[i];
+					balances[slot] = oldBalances[i];
+					used[slot] = true;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.io.*;
+
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping(value = "/api/admin", produces = { MediaType.APPLICATION_JSON_VALUE })
+public class LedgerAdminController {
+
+	private final LedgerJournal journal;
+
+	@Autowired
+	public LedgerAdminController(LedgerJournal journal) {
+		this.journal = journal;
+	}
+
+	@GetMapping("/ledger")
+	LedgerJournal.Status ledger() throws IOException {
+		return journal.status();
+	}
+}
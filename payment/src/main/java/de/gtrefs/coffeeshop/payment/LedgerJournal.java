@@ -0,0 +1,399 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.stream.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.slf4j.*;
+
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+// Write-ahead log of every balance change. Charges append their entry to an
+// in-memory buffer. A single writer thread swaps that buffer for an empty one,
+// writes it to the current log segment and forces it to disk. All charges in
+// the buffer become durable with a single fsync (group commit).
+//
+// Entries hold the new balance, not the amount charged. Replaying an entry
+// twice does no harm, so snapshots can be taken while charges come in. A
+// snapshot starts a new segment, and older segments are deleted once it is
+// on disk. Recovery loads the latest snapshot and replays the segments after it.
+//
+// Snapshots are taken by a thread of their own. Charges record their entry while
+// they hold the lock of their card. When the buffer is full, they wait for the
+// writer, so the writer must never wait for a card itself.
+//
+// If the log cannot be written, the journal stops. Charges which wait until their
+// entry is durable fail, and so do all charges after them, until the service is
+// restarted and recovers from what made it to disk.
+public class LedgerJournal implements Ledger.Entries, Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(LedgerJournal.class);
+
+	private static final int ENTRY_SIZE = 3 * Long.BYTES + Integer.BYTES;
+	private static final long SNAPSHOT_MAGIC = 0x4C45444745520001L;
+	private static final String SEGMENT_PREFIX = "ledger-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+
+	private final Path directory;
+	private final DirectoryLock directoryLock;
+	private final Ledger ledger;
+	private final Duration snapshotInterval;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition hasEntries = lock.newCondition();
+	private final Condition hasRoom = lock.newCondition();
+	private final Condition durable = lock.newCondition();
+	private final Thread writer;
+
+	private volatile Thread snapshotting;
+	private volatile IOException failure;
+	private ByteBuffer filling;
+	private ByteBuffer draining;
+	private long appendedEntries;
+	private long durableEntries;
+	private long highestTransaction;
+
+	private volatile boolean running = true;
+	private long segmentNumber = 1;
+	private FileChannel segment;
+	private volatile Instant lastSnapshot;
+	private volatile Duration replayTime = Duration.ZERO;
+	private volatile long replayedEntries;
+
+	private LedgerJournal(Path directory, DirectoryLock directoryLock, Ledger ledger, Duration snapshotInterval, int bufferedEntries) {
+		this.directory = directory;
+		this.directoryLock = directoryLock;
+		this.ledger = ledger;
+		this.snapshotInterval = snapshotInterval;
+		this.filling = ByteBuffer.allocateDirect(bufferedEntries * ENTRY_SIZE);
+		this.draining = ByteBuffer.allocateDirect(bufferedEntries * ENTRY_SIZE);
+		this.writer = new Thread(this::writeEntries, "ledger-journal");
+		this.writer.setDaemon(true);
+	}
+
+	// Recovers the ledger from disk before any charge is recorded.
+	public static LedgerJournal open(Path directory, Ledger ledger, Duration snapshotInterval, int bufferedEntries) throws IOException {
+		var directoryLock = DirectoryLock.lock(directory);
+		var journal = new LedgerJournal(directory, directoryLock, ledger, snapshotInterval, bufferedEntries);
+		journal.recover();
+		ledger.recordTo(journal);
+		journal.writer.start();
+		return journal;
+	}
+
+	private void recover() throws IOException {
+		var started = System.nanoTime();
+		var snapshots = files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if(!snapshots.isEmpty()){
+			loadSnapshot(snapshots.get(snapshots.size() - 1));
+		}
+		for (Path path : files(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			var number = number(path, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+			if(number >= segmentNumber){
+				segmentNumber = number;
+				replay(path);
+			}
+		}
+		segment = FileChannel.open(segmentPath(segmentNumber), CREATE, WRITE);
+		segment.position(segment.size());
+		replayTime = Duration.ofNanos(System.nanoTime() - started);
+		logger.info("Recovered ledger with {} log entries in {} ms.", replayedEntries, replayTime.toMillis());
+	}
+
+	private void loadSnapshot(Path snapshot) throws IOException {
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+			if(in.readLong() != SNAPSHOT_MAGIC){
+				throw new IOException("Not a ledger snapshot: " + snapshot);
+			}
+			segmentNumber = in.readLong();
+			highestTransaction = in.readLong();
+			long balances = in.readLong();
+			for (long i = 0; i < balances; i++) {
+				ledger.restore(in.readLong(), in.readLong());
+			}
+		}
+		lastSnapshot = Files.getLastModifiedTime(snapshot).toInstant();
+	}
+
+	// A torn entry at the end of a segment is cut off, so that new entries follow the last good one.
+	private void replay(Path path) throws IOException {
+		try (var channel = FileChannel.open(path, READ, WRITE)) {
+			var entries = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+			long position = 0;
+			while (channel.read(entries, position + entries.position()) > 0 || entries.position() > 0) {
+				entries.flip();
+				while (entries.remaining() >= ENTRY_SIZE) {
+					long token = entries.getLong();
+					long balance = entries.getLong();
+					long transaction = entries.getLong();
+					if(entries.getInt() != checksum(token, balance, transaction)){
+						logger.warn("Ledger log {} is torn at {}. Dropping everything behind it.", path, position);
+						channel.truncate(position);
+						return;
+					}
+					ledger.restore(token, balance);
+					highestTransaction = Math.max(highestTransaction, transaction);
+					replayedEntries++;
+					position += ENTRY_SIZE;
+				}
+				if(entries.hasRemaining() && channel.size() - position < ENTRY_SIZE){
+					channel.truncate(position);
+					return;
+				}
+				entries.compact();
+			}
+		}
+	}
+
+	@Override
+	public void record(long token, long balance, long transaction) {
+		lock.lock();
+		try {
+			while (filling.remaining() < ENTRY_SIZE && failure == null) {
+				hasRoom.awaitUninterruptibly();
+			}
+			failIfStopped();
+			filling.putLong(token).putLong(balance).putLong(transaction).putInt(checksum(token, balance, transaction));
+			appendedEntries++;
+			highestTransaction = Math.max(highestTransaction, transaction);
+			hasEntries.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Waits until everything recorded so far, including the caller's own entry, is on disk.
+	public void awaitDurable() {
+		lock.lock();
+		try {
+			long recorded = appendedEntries;
+			while (durableEntries < recorded && running) {
+				durable.awaitUninterruptibly();
+			}
+			if(durableEntries < recorded) failIfStopped();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void failIfStopped() {
+		if(failure != null){
+			throw new UncheckedIOException("The ledger log could not be written.", failure);
+		}
+	}
+
+	public long highestTransaction() {
+		lock.lock();
+		try {
+			return highestTransaction;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeEntries() {
+		var nextSnapshot = System.nanoTime() + snapshotInterval.toNanos();
+		while (running || filling.position() > 0) {
+			try {
+				long written;
+				lock.lock();
+				try {
+					while (filling.position() == 0 && running && System.nanoTime() < nextSnapshot) {
+						hasEntries.await(100, TimeUnit.MILLISECONDS);
+					}
+					var full = filling;
+					filling = draining;
+					draining = full;
+					written = appendedEntries;
+					hasRoom.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				draining.flip();
+				while (draining.hasRemaining()) {
+					segment.write(draining);
+				}
+				segment.force(false);
+				draining.clear();
+				lock.lock();
+				try {
+					durableEntries = written;
+					durable.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				if(System.nanoTime() >= nextSnapshot){
+					startSnapshot();
+					nextSnapshot = System.nanoTime() + snapshotInterval.toNanos();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (IOException | RuntimeException e) {
+				stop(e instanceof IOException ? (IOException) e : new IOException(e));
+				return;
+			}
+		}
+	}
+
+	private void stop(IOException e) {
+		logger.error("Could not write to the ledger log. Charges fail until the service is restarted.", e);
+		lock.lock();
+		try {
+			failure = e;
+			running = false;
+			durable.signalAll();
+			hasRoom.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Entries of the new segment are replayed on top of the snapshot. A snapshot
+	// which is still being taken is finished first, the next one waits for the interval.
+	private void startSnapshot() throws IOException {
+		if(snapshotting != null && snapshotting.isAlive()) return;
+		segment.close();
+		segmentNumber++;
+		segment = FileChannel.open(segmentPath(segmentNumber), CREATE, WRITE);
+		var snapshotSegment = segmentNumber;
+		snapshotting = new Thread(() -> {
+			try {
+				snapshot(snapshotSegment);
+			} catch (IOException | RuntimeException e) {
+				logger.error("Could not take a ledger snapshot. The log is kept until the next one.", e);
+			}
+		}, "ledger-snapshot");
+		snapshotting.setDaemon(true);
+		snapshotting.start();
+	}
+
+	private void snapshot(long segmentNumber) throws IOException {
+		var started = System.nanoTime();
+		var temporary = directory.resolve(SNAPSHOT_PREFIX + "next.tmp");
+		try (var channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			var balances = new ByteArrayOutputStream();
+			var entries = new DataOutputStream(balances);
+			var count = new long[1];
+			ledger.forEach((token, balance, transaction) -> {
+				try {
+					entries.writeLong(token);
+					entries.writeLong(balance);
+					count[0]++;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			out.writeLong(SNAPSHOT_MAGIC);
+			out.writeLong(segmentNumber);
+			out.writeLong(highestTransaction());
+			out.writeLong(count[0]);
+			balances.writeTo(out);
+			out.flush();
+			channel.force(true);
+		}
+		var snapshot = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, segmentNumber, SNAPSHOT_SUFFIX));
+		Files.move(temporary, snapshot, ATOMIC_MOVE, REPLACE_EXISTING);
+		lastSnapshot = Instant.now();
+		for (Path path : files(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			if(number(path, SEGMENT_PREFIX, SEGMENT_SUFFIX) < segmentNumber) Files.deleteIfExists(path);
+		}
+		for (Path path : files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+			if(!path.equals(snapshot)) Files.deleteIfExists(path);
+		}
+		logger.info("Took ledger snapshot in {} ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+	}
+
+	public Status status() throws IOException {
+		long logSize = 0;
+		var segments = files(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+		for (Path path : segments) {
+			logSize += Files.size(path);
+		}
+		var snapshotAge = lastSnapshot == null ? null : Duration.between(lastSnapshot, Instant.now());
+		return new Status(logSize, segments.size(), replayedEntries, replayTime, snapshotAge);
+	}
+
+	private static int checksum(long token, long balance, long transaction) {
+		return (int) CardTokens.mix(token ^ CardTokens.mix(balance ^ CardTokens.mix(transaction)));
+	}
+
+	private Path segmentPath(long number) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private List<Path> files(String prefix, String suffix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.getFileName().toString().startsWith(prefix))
+						.filter(path -> path.getFileName().toString().endsWith(suffix))
+						.sorted(Comparator.comparingLong(path -> number(path, prefix, suffix)))
+						.collect(Collectors.toList());
+		}
+	}
+
+	private static long number(Path path, String prefix, String suffix) {
+		var name = path.getFileName().toString();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+			if(snapshotting != null) snapshotting.join(TimeUnit.SECONDS.toMillis(5));
+			segment.close();
+			directoryLock.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.warn("Could not close ledger log.", e);
+		}
+	}
+
+	public static class Status {
+		private final long logSizeInBytes;
+		private final int logSegments;
+		private final long replayedEntries;
+		private final Duration replayTime;
+		private final Duration snapshotAge;
+
+		private Status(long logSizeInBytes, int logSegments, long replayedEntries, Duration replayTime, Duration snapshotAge) {
+			this.logSizeInBytes = logSizeInBytes;
+			this.logSegments = logSegments;
+			this.replayedEntries = replayedEntries;
+			this.replayTime = replayTime;
+			this.snapshotAge = snapshotAge;
+		}
+
+		public long getLogSizeInBytes() {
+			return logSizeInBytes;
+		}
+
+		public int getLogSegments() {
+			return logSegments;
+		}
+
+		public long getReplayedEntries() {
+			return replayedEntries;
+		}
+
+		public long getReplayTimeInMillis() {
+			return replayTime.toMillis();
+		}
+
+		public Long getSnapshotAgeInSeconds() {
+			return snapshotAge == null ? null : snapshotAge.getSeconds();
+		}
+	}
+}
@@ -4,11 +4,16 @@ import java.math.*;
 
 public class PaymentCharge {
 	private BigDecimal price;
+	// Which prices of the order service the price was taken from
+	private long priceVersion;
 	private String creditCardNumber;
+	// Charges with the same key are only made once, repeats get the original receipt.
+	private String idempotencyKey;
 
-	private PaymentCharge(BigDecimal price, String creditCardNumber) {
+	private PaymentCharge(BigDecimal price, String creditCardNumber, String idempotencyKey) {
 		this.price = price;
 		this.creditCardNumber = creditCardNumber;
+		this.idempotencyKey = idempotencyKey;
 	}
 
 	public BigDecimal getPrice() {
@@ -19,6 +24,14 @@ public class PaymentCharge {
 		this.price = price;
 	}
 
+	public long getPriceVersion() {
+		return priceVersion;
+	}
+
+	public void setPriceVersion(long priceVersion) {
+		this.priceVersion = priceVersion;
+	}
+
 	public String getCreditCardNumber() {
 		return creditCardNumber;
 	}
@@ -26,4 +39,12 @@ public class PaymentCharge {
 	public void setCreditCardNumber(String creditCardNumber) {
 		this.creditCardNumber = creditCardNumber;
 	}
+
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
 }
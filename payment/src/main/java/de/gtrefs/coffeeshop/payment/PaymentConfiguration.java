@@ -0,0 +1,54 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.time.*;
+
+import de.gtrefs.coffeeshop.common.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.context.annotation.*;
+import org.springframework.util.unit.*;
+
+@Configuration
+public class PaymentConfiguration {
+
+	@Bean
+	public Ledger ledger(@Value("${coffeeshop.payment.balance.start:10}") int startBalance,
+						 @Value("${coffeeshop.payment.balance.overdraft:10}") int overdraftLimit,
+						 @Value("${coffeeshop.payment.ledger.stripes:64}") int stripes) {
+		return new Ledger(stripes, startBalance * 100L, overdraftLimit * 100L);
+	}
+
+	@Bean(destroyMethod = "close")
+	public LedgerJournal ledgerJournal(Ledger ledger,
+									   @Value("${coffeeshop.payment.ledger.journal.directory}") Path directory,
+									   @Value("${coffeeshop.payment.ledger.journal.snapshot-interval:5m}") Duration snapshotInterval,
+									   @Value("${coffeeshop.payment.ledger.journal.buffered-entries:4096}") int bufferedEntries) throws IOException {
+		return LedgerJournal.open(directory, ledger, snapshotInterval, bufferedEntries);
+	}
+
+	@Bean
+	public SnowflakeIds receiptIds(@Value("${coffeeshop.payment.node-id:-1}") long nodeId, LedgerJournal journal) throws UnknownHostException {
+		var ids = SnowflakeIds.forNode(nodeId);
+		ids.advancePast(journal.highestTransaction());
+		return ids;
+	}
+
+	@Bean(destroyMethod = "close")
+	public SpanFile spanFile(@Value("${coffeeshop.payment.tracing.file}") Path file,
+							 @Value("${coffeeshop.payment.tracing.max-file-size:64MB}") DataSize maxFileSize,
+							 @Value("${coffeeshop.payment.tracing.queue-capacity:4096}") int queueCapacity) throws IOException {
+		return SpanFile.open(file, maxFileSize.toBytes(), queueCapacity);
+	}
+
+	@Bean
+	public Tracer tracer(@Value("${coffeeshop.payment.tracing.traces-per-second:10}") int tracesPerSecond, SpanFile spanFile) {
+		return new Tracer("payment", tracesPerSecond, spanFile);
+	}
+
+	@Bean
+	public TracingFilter tracingFilter(Tracer tracer) {
+		return new TracingFilter(tracer);
+	}
+}
@@ -20,7 +20,9 @@ public class PaymentController {
 
 	@PostMapping("/charge")
 	ResponseEntity<Receipt> orderCoffee(@RequestBody PaymentCharge charge) {
-		return ResponseEntity.ok(paymentService.expense(charge));
+		return paymentService.expense(charge)
+							 .map(ResponseEntity::ok)
+							 .orElseThrow(() -> new InsufficientFunds("Insufficient funds for credit card: " + charge.getCreditCardNumber()));
 	}
 
 }
\ No newline at end of file
@@ -5,32 +5,77 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 
+import de.gtrefs.coffeeshop.common.*;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.*;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.stereotype.*;
 
 @Service
 public class PaymentService {
 
-	private final ConcurrentHashMap<String, BigDecimal> money;
-	private final AtomicLong runningReceiptNumber = new AtomicLong();
+	private static final Logger logger = LoggerFactory.getLogger(PaymentService.class);
 
-	@Value("${coffeeshop.payment.balance.start:10}")
-	private int startBalance = 10;
+	private final Ledger ledger;
+	private final LedgerJournal journal;
+	private final ProcessedCharges processedCharges;
+	private final SnowflakeIds receiptIds;
+	private final Timer charged;
+	private final Timer rejected;
+	private final Timer replayed;
 
-	public PaymentService(){
-		money = new ConcurrentHashMap<>();
+	@Value("${coffeeshop.payment.ledger.journal.await-durable:true}")
+	private boolean awaitDurable;
+
+	@Autowired
+	public PaymentService(Ledger ledger, LedgerJournal journal, ProcessedCharges processedCharges, SnowflakeIds receiptIds,
+						  MeterRegistry meterRegistry){
+		this.ledger = ledger;
+		this.journal = journal;
+		this.processedCharges = processedCharges;
+		this.receiptIds = receiptIds;
+		this.charged = expense("charged", meterRegistry);
+		this.rejected = expense("insufficient-funds", meterRegistry);
+		this.replayed = expense("replayed", meterRegistry);
+	}
+
+	private static Timer expense(String outcome, MeterRegistry meterRegistry) {
+		return Timer.builder("payment.expense")
+					.description("Time to charge a card, waiting until it is durable included")
+					.tag("outcome", outcome)
+					.register(meterRegistry);
 	}
 
-	public Receipt expense(PaymentCharge charge){
-		BigDecimal newBalance = money.compute(charge.getCreditCardNumber(), (creditCardNumber, balance) -> {
-			if(balance == null) return new BigDecimal(startBalance).subtract(charge.getPrice());
-			BigDecimal computed = balance.subtract(charge.getPrice());
-			if(computed.longValue() <= -10L){
-				throw new InsufficientFunds("Insufficient funds for credit card: "+creditCardNumber);
-			}
-			return computed;
+	// Repeats of a processed charge are answered from ProcessedCharges. They are timed
+	// on their own, so that they do not hide how long charging takes.
+	public Optional<Receipt> expense(PaymentCharge charge){
+		var started = System.nanoTime();
+		var charging = new AtomicBoolean();
+		var receipt = processedCharges.once(charge.getIdempotencyKey(), () -> {
+			charging.set(true);
+			return charge(charge);
 		});
-		return new Receipt(runningReceiptNumber.incrementAndGet(), newBalance);
+		var expense = !charging.get() ? replayed : receipt.isPresent() ? charged : rejected;
+		expense.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+		return receipt;
 	}
 
+	private Optional<Receipt> charge(PaymentCharge charge){
+		long receiptNumber = receiptIds.next();
+		long balance = ledger.charge(CardTokens.tokenOf(charge.getCreditCardNumber()), cents(charge.getPrice()), receiptNumber);
+		if(balance == Ledger.INSUFFICIENT_FUNDS){
+			return Optional.empty();
+		}
+		if(awaitDurable){
+			journal.awaitDurable();
+		}
+		logger.debug("Charged {} for {} with price version {}, receipt {}.", charge.getPrice(), charge.getIdempotencyKey(),
+					 charge.getPriceVersion(), receiptNumber);
+		return Optional.of(new Receipt(receiptNumber, BigDecimal.valueOf(balance, 2)));
+	}
+
+	private static long cents(BigDecimal price) {
+		return price.movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+	}
 }
@@ -0,0 +1,54 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import com.github.benmanes.caffeine.cache.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.stereotype.*;
+
+// Remembers the outcome of recent charges by their idempotency key. Repeats which
+// arrive while the original charge is still running wait for its outcome instead of
+// charging again. Outcomes are forgotten after the window, or earlier if there are
+// more than maximum-size of them.
+@Component
+public class ProcessedCharges {
+
+	private final ConcurrentMap<String, CompletableFuture<Optional<Receipt>>> outcomes;
+
+	@Autowired
+	public ProcessedCharges(@Value("${coffeeshop.payment.idempotency.maximum-size}") long maximumSize,
+							@Value("${coffeeshop.payment.idempotency.window}") Duration window) {
+		this.outcomes = Caffeine.newBuilder()
+								.maximumSize(maximumSize)
+								.expireAfterWrite(window)
+								.<String, CompletableFuture<Optional<Receipt>>>build()
+								.asMap();
+	}
+
+	public Optional<Receipt> once(String idempotencyKey, Supplier<Optional<Receipt>> charge) {
+		if(idempotencyKey == null){
+			return charge.get();
+		}
+		var processed = outcomes.get(idempotencyKey);
+		if(processed != null){
+			return processed.join();
+		}
+		var outcome = new CompletableFuture<Optional<Receipt>>();
+		processed = outcomes.putIfAbsent(idempotencyKey, outcome);
+		if(processed != null){
+			return processed.join();
+		}
+		try {
+			outcome.complete(charge.get());
+			return outcome.join();
+		} catch (RuntimeException e) {
+			// Nothing was charged, so the client may try again.
+			outcomes.remove(idempotencyKey, outcome);
+			outcome.completeExceptionally(e);
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LedgerJournalShould {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void restore_balances_after_a_restart() throws IOException {
+		var ledger = new Ledger(4, 1000, 1000);
+		var journal = LedgerJournal.open(directory, ledger, Duration.ofMinutes(5), 16);
+		for (long receipt = 1; receipt <= 100; receipt++) {
+			ledger.charge(receipt % 10, 5, receipt);
+		}
+		journal.awaitDurable();
+		journal.close();
+
+		var restored = new Ledger(4, 1000, 1000);
+		var restarted = LedgerJournal.open(directory, restored, Duration.ofMinutes(5), 16);
+
+		assertThat(restarted.highestTransaction()).isEqualTo(100L);
+		assertThat(restored.balance(3)).isEqualTo(950L);
+		restarted.close();
+	}
+
+	@Test
+	public void restore_balances_from_a_snapshot() throws IOException, InterruptedException {
+		var ledger = new Ledger(4, 1000, 1000);
+		var journal = LedgerJournal.open(directory, ledger, Duration.ofMillis(50), 16);
+		ledger.charge(1, 100, 1);
+		journal.awaitDurable();
+		Thread.sleep(300);
+		ledger.charge(1, 100, 2);
+		journal.awaitDurable();
+		journal.close();
+
+		var restored = new Ledger(4, 1000, 1000);
+		var restarted = LedgerJournal.open(directory, restored, Duration.ofMinutes(5), 16);
+
+		assertThat(restarted.status().getSnapshotAgeInSeconds()).isNotNull();
+		assertThat(restored.balance(1)).isEqualTo(800L);
+		assertThat(restarted.highestTransaction()).isEqualTo(2L);
+		restarted.close();
+	}
+
+	@Test
+	public void keep_charging_while_a_full_buffer_meets_a_snapshot() throws Exception {
+		var ledger = new Ledger(4, 1_000_000, 1000);
+		var journal = LedgerJournal.open(directory, ledger, Duration.ofMillis(1), 2);
+		var chargers = Executors.newFixedThreadPool(8);
+		try {
+			var charges = new ArrayList<Future<?>>();
+			for (int charger = 0; charger < 8; charger++) {
+				long first = charger * 1000L;
+				charges.add(chargers.submit(() -> {
+					for (long receipt = first; receipt < first + 1000; receipt++) {
+						ledger.charge(receipt % 64 << 40, 1, receipt);
+					}
+				}));
+			}
+			for (Future<?> charge : charges) {
+				charge.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			chargers.shutdownNow();
+			journal.close();
+		}
+
+		var restored = new Ledger(4, 1_000_000, 1000);
+		LedgerJournal.open(directory, restored, Duration.ofMinutes(5), 16).close();
+		assertThat(restored.balance(0)).isEqualTo(1_000_000 - 125);
+	}
+
+	@Test
+	public void fail_charges_once_the_log_cannot_be_written() throws Exception {
+		var ledger = new Ledger(4, 1000, 1000);
+		var journal = LedgerJournal.open(directory, ledger, Duration.ofMillis(50), 16);
+		// The segment after the first snapshot cannot be created
+		Files.createDirectories(directory.resolve(String.format("ledger-%020d.log", 2)));
+
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			assertThatThrownBy(() -> {
+				for (long receipt = 1; ; receipt++) {
+					ledger.charge(1, 1, receipt);
+					journal.awaitDurable();
+					Thread.sleep(1);
+				}
+			}).isInstanceOf(UncheckedIOException.class);
+		});
+		var balance = ledger.balance(1);
+		assertThatThrownBy(() -> ledger.charge(1, 1, Long.MAX_VALUE)).isInstanceOf(UncheckedIOException.class);
+		assertThat(ledger.balance(1)).isEqualTo(balance);
+		journal.close();
+	}
+}
@@ -0,0 +1,55 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LedgerShould {
+
+	@Test
+	public void not_lose_charges_to_the_same_card_under_contention() throws Exception {
+		var ledger = new Ledger(4, 1_000_000L, 1_000L);
+		var card = CardTokens.tokenOf("98236587");
+		var threads = 8;
+		var chargesPerThread = 10_000;
+		var executor = Executors.newFixedThreadPool(threads);
+		var start = new CountDownLatch(1);
+		for (int i = 0; i < threads; i++) {
+			executor.submit(() -> {
+				start.await();
+				for (int charge = 0; charge < chargesPerThread; charge++) {
+					ledger.charge(card, 1L, charge);
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(ledger.balance(card)).isEqualTo(1_000_000L - threads * chargesPerThread);
+	}
+
+	@Test
+	public void refuse_charges_reaching_the_overdraft_limit(){
+		var ledger = new Ledger(4, 1_000L, 1_000L);
+		var card = CardTokens.tokenOf("1234567890123");
+
+		assertThat(ledger.charge(card, 1_500L, 0L)).isEqualTo(-500L);
+		assertThat(ledger.charge(card, 500L, 0L)).isEqualTo(Ledger.INSUFFICIENT_FUNDS);
+		assertThat(ledger.charge(card, 499L, 0L)).isEqualTo(-999L);
+	}
+
+	@Test
+	public void keep_balances_of_many_cards_apart(){
+		var ledger = new Ledger(2, 1_000L, 1_000L);
+		for (int card = 0; card < 10_000; card++) {
+			ledger.charge(CardTokens.tokenOf(String.valueOf(card)), card % 100, card);
+		}
+		for (int card = 0; card < 10_000; card++) {
+			assertThat(ledger.balance(CardTokens.tokenOf(String.valueOf(card)))).isEqualTo(1_000L - card % 100);
+		}
+	}
+}
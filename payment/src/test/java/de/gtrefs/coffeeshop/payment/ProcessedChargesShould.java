@@ -0,0 +1,37 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.math.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.jupiter.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ProcessedChargesShould {
+
+	private final ProcessedCharges processedCharges = new ProcessedCharges(100, Duration.ofMinutes(1));
+	private final AtomicLong receipts = new AtomicLong();
+
+	@Test
+	public void return_the_original_receipt_for_a_repeated_charge() {
+		var first = processedCharges.once("order-1", this::charge);
+		var repeated = processedCharges.once("order-1", this::charge);
+
+		assertThat(repeated).containsSame(first.orElseThrow());
+		assertThat(receipts).hasValue(1L);
+	}
+
+	@Test
+	public void charge_again_if_the_first_attempt_failed() {
+		assertThatThrownBy(() -> processedCharges.once("order-2", () -> { throw new IllegalStateException(); }))
+				.isInstanceOf(IllegalStateException.class);
+
+		assertThat(processedCharges.once("order-2", this::charge)).isPresent();
+	}
+
+	private Optional<Receipt> charge() {
+		return Optional.of(new Receipt(receipts.incrementAndGet(), BigDecimal.TEN));
+	}
+}
@@ -0,0 +1,51 @@
+package de.gtrefs.coffeeshop.payment;
+
+import java.nio.file.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.*;
+import org.springframework.boot.test.autoconfigure.web.servlet.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.http.*;
+import org.springframework.test.context.*;
+import org.springframework.test.web.servlet.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMetrics
+@AutoConfigureMockMvc
+public class PrometheusEndpointShould {
+
+	// Every run starts with an empty ledger of its own
+	@TempDir
+	static Path ledger;
+
+	@DynamicPropertySource
+	static void ledgerDirectory(DynamicPropertyRegistry properties) {
+		properties.add("coffeeshop.payment.ledger.journal.directory", () -> ledger.toString());
+	}
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Test
+	public void expose_expense_latency_and_ledger_contention() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			mvc.perform(post("/api/charge").contentType(MediaType.APPLICATION_JSON)
+										   .content("{\"price\": 1.50, \"creditCardNumber\": \"1234\", \"idempotencyKey\": \"order-1\"}"))
+			   .andExpect(status().isOk());
+		}
+
+		mvc.perform(get("/actuator/prometheus"))
+		   .andExpect(status().isOk())
+		   .andExpect(content().string(containsString("payment_expense_seconds_count{application=\"payment\",outcome=\"charged\",} 1.0")))
+		   .andExpect(content().string(containsString("payment_expense_seconds_bucket{application=\"payment\",outcome=\"charged\",le=\"0.001\",}")))
+		   .andExpect(content().string(containsString("payment_expense_seconds_count{application=\"payment\",outcome=\"replayed\",} 1.0")))
+		   .andExpect(content().string(containsString("payment_ledger_lock_wait_seconds_count{application=\"payment\",} 1.0")));
+	}
+}
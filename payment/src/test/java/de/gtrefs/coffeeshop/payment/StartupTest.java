@@ -1,13 +1,25 @@
 package de.gtrefs.coffeeshop.payment;
 
+import java.nio.file.*;
+
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
 import org.slf4j.*;
 import org.springframework.boot.test.context.*;
+import org.springframework.test.context.*;
 
 @SpringBootTest
 public class StartupTest {
 	private final static Logger logger = LoggerFactory.getLogger(StartupTest.class);
 
+	// The ledger directory is locked by the service, other tests start one as well
+	@TempDir
+	static Path ledger;
+
+	@DynamicPropertySource
+	static void ledgerDirectory(DynamicPropertyRegistry properties) {
+		properties.add("coffeeshop.payment.ledger.journal.directory", () -> ledger.toString());
+	}
 
 	@Test
 	public void should_start(){